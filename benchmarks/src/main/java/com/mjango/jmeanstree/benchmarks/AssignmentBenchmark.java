@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree.benchmarks;
+
+import com.mjango.jmeanstree.ACluster;
+import com.mjango.jmeanstree.AssignmentAlgorithm;
+import com.mjango.jmeanstree.KMeansTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to cluster the root, for each assignment algorithm.  The root runs up to a fixed number of
+ * iterations with the tolerance and changed-fraction stops disabled, so the accelerated
+ * algorithms' savings in later iterations show up against their full first pass.  All three
+ * algorithms reach the same assignments and so stop after the same number of iterations.
+ * <p/>
+ * The vectors are added once per trial; each invocation only discards the root's sub-clusters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AssignmentBenchmark {
+    private static final int ITERATIONS = 10;
+
+    @Param({"100000"})
+    public int n;
+
+    @Param({"32"})
+    public int dimensions;
+
+    @Param({"16", "64"})
+    public int k;
+
+    @Param({"LLOYD", "HAMERLY", "ELKAN"})
+    public AssignmentAlgorithm algorithm;
+
+    @Param({"BLOBS"})
+    public Datasets.Distribution distribution;
+
+    private KMeansTree<Number> tree;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        double[] data = Datasets.generate(distribution, n, dimensions, 42);
+        tree = Datasets.fill(data,
+                             dimensions,
+                             Datasets.builder(dimensions, k)
+                                     .maxDepth(2)
+                                     .assignment(algorithm)
+                                     .maxIterations(ITERATIONS)
+                                     .tolerance(0)
+                                     .minChangedFraction(0));
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        ((ACluster<Number>) tree.getRoot()).reset();
+    }
+
+    @Benchmark
+    public Object cluster() {
+        tree.calculate();
+        return tree.getRoot();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree.benchmarks;
+
+import com.mjango.jmeanstree.KMeansTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full {@link KMeansTree#calculate()} build time across data set size, K and depth.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BuildBenchmark {
+    @Param({"10000", "100000"})
+    public int n;
+
+    @Param({"32"})
+    public int dimensions;
+
+    @Param({"4", "8", "16"})
+    public int k;
+
+    @Param({"2", "4"})
+    public int depth;
+
+    @Param({"UNIFORM", "BLOBS"})
+    public Datasets.Distribution distribution;
+
+    @Param({"false", "true"})
+    public boolean forkJoinBuild;
+
+    private double[] data;
+    private KMeansTree<Number> tree;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        data = Datasets.generate(distribution, n, dimensions, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        tree = Datasets.fill(data,
+                             dimensions,
+                             Datasets.builder(dimensions, k)
+                                     .maxDepth(depth)
+                                     .forkJoinBuild(forkJoinBuild));
+    }
+
+    @Benchmark
+    public Object build() {
+        tree.calculate();
+        return tree.getRoot();
+    }
+}
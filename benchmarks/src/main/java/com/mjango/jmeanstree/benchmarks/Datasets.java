@@ -0,0 +1,119 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree.benchmarks;
+
+import com.mjango.jmeanstree.Cluster;
+import com.mjango.jmeanstree.ICluster;
+import com.mjango.jmeanstree.KMeansTree;
+import com.mjango.jmeanstree.Vect;
+
+import java.util.Random;
+
+/**
+ * Seeded synthetic data sets, so that every benchmark run sees the same vectors.
+ */
+public final class Datasets {
+    /**
+     * Number of blobs in a {@link Distribution#BLOBS} data set.
+     */
+    public static final int BLOBS = 64;
+
+    public enum Distribution {
+        /**
+         * Every value uniform in [0, 1).
+         */
+        UNIFORM,
+        /**
+         * Unit-variance Gaussian blobs around {@link #BLOBS} centers drawn uniformly from
+         * [0, 10) in every dimension.
+         */
+        BLOBS
+    }
+
+    private Datasets() {
+    }
+
+    /**
+     * Generate a data set.
+     *
+     * @param distribution distribution of the vectors.
+     * @param n            number of vectors.
+     * @param dimensions   vector dimensions.
+     * @param seed         random seed.
+     * @return the vectors, row-major.
+     */
+    public static double[] generate(Distribution distribution, int n, int dimensions, long seed) {
+        Random random = new Random(seed);
+        double[] data = new double[n * dimensions];
+        if (distribution == Distribution.UNIFORM) {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = random.nextDouble();
+            }
+            return data;
+        }
+        double[] centers = new double[BLOBS * dimensions];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = random.nextDouble() * 10;
+        }
+        for (int i = 0; i < n; i++) {
+            int center = random.nextInt(BLOBS) * dimensions;
+            for (int j = 0; j < dimensions; j++) {
+                data[i * dimensions + j] = centers[center + j] + random.nextGaussian();
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Create an unbuilt tree holding a data set.
+     *
+     * @param data       vectors, row-major.
+     * @param dimensions vector dimensions.
+     * @param builder    configured builder for the tree's root.
+     * @return the tree.
+     */
+    public static KMeansTree<Number> fill(double[] data,
+                                          int dimensions,
+                                          KMeansTree.Builder<Number> builder) {
+        KMeansTree<Number> tree = builder.build();
+        double[] row = new double[dimensions];
+        for (int offset = 0; offset < data.length; offset += dimensions) {
+            System.arraycopy(data, offset, row, 0, dimensions);
+            tree.add(new Vect(row));
+        }
+        return tree;
+    }
+
+    /**
+     * Create a builder for a tree of {@link Cluster}s.
+     *
+     * @param dimensions vector dimensions.
+     * @param k          clusters per node.
+     * @return the builder.
+     */
+    public static KMeansTree.Builder<Number> builder(int dimensions, int k) {
+        return KMeansTree.builder((ICluster<Number>) new Cluster(dimensions, k));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree.benchmarks;
+
+import com.mjango.jmeanstree.KMeansTree;
+import com.mjango.jmeanstree.NeighborList;
+import com.mjango.jmeanstree.Vect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query latency against a built tree: one k-NN query at a time, and the parallel batch API.
+ * Queries are drawn from the same distribution as the tree's vectors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+    private static final int QUERIES = 1024;
+
+    @Param({"100000"})
+    public int n;
+
+    @Param({"32"})
+    public int dimensions;
+
+    @Param({"8"})
+    public int k;
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"BLOBS"})
+    public Datasets.Distribution distribution;
+
+    @Param({"10"})
+    public int neighbors;
+
+    @Param({"0", "256", "1024"})
+    public int maxChecks;
+
+    private KMeansTree<Number> tree;
+    private double[] queries;
+    private Vect[] queryVects;
+    private int[] ids;
+    private double[] distances;
+
+    @Setup
+    public void build() {
+        tree = Datasets.fill(Datasets.generate(distribution, n, dimensions, 42),
+                             dimensions,
+                             Datasets.builder(dimensions, k).maxDepth(depth).forkJoinBuild(true));
+        tree.calculate();
+        queries = Datasets.generate(distribution, QUERIES, dimensions, 43);
+        queryVects = new Vect[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queryVects[i] = new Vect(Arrays.copyOfRange(queries,
+                                                        i * dimensions,
+                                                        (i + 1) * dimensions));
+        }
+        ids = new int[QUERIES * neighbors];
+        distances = new double[QUERIES * neighbors];
+    }
+
+    /**
+     * Per-thread query state, so that concurrent benchmark threads do not share results.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+        NeighborList results;
+    }
+
+    @Benchmark
+    public NeighborList single(Cursor cursor) {
+        cursor.next = (cursor.next + 1) & (QUERIES - 1);
+        cursor.results = tree.getNearestNeighbors(queryVects[cursor.next],
+                                                  neighbors,
+                                                  maxChecks,
+                                                  cursor.results);
+        return cursor.results;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public long batch() {
+        return tree.getNearestNeighbors(queries, neighbors, maxChecks, ids, distances);
+    }
+}
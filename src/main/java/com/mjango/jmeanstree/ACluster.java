@@ -28,51 +28,539 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class ACluster<T> implements ICluster<T> {
-    protected static final int MAX_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int INITIAL_CAPACITY = 16;
+    private static final ThreadLocal<VisitedSet> VISITED = new ThreadLocal<VisitedSet>() {
+        @Override
+        protected VisitedSet initialValue() {
+            return new VisitedSet();
+        }
+    };
     protected final ACluster<T> parent;
+    protected final int level;
     protected final IDistanceCalculator<T> distanceCalculator;
-    protected final List<IVect<T>> vects;
+    protected final VectStore store;
+    protected final LeafIndex<T> leaves;
+    protected int[] ids;
+    protected int count;
+    protected int deleted;
+    /**
+     * The member array and count as of the last change, published together with a single write
+     * so that leaf scans can read them without taking this cluster's lock.  Slots below the
+     * count are never rewritten; purging replaces the array instead.
+     */
+    private volatile Members members;
+    private int[] liveIds;
+    // Set while calculate() runs its k-means without holding this cluster's lock, during which
+    // removals reaching this cluster are recorded so they can be passed on to the sub-clusters.
+    private boolean calculating;
+    private int[] pendingDeletes;
+    private int pendingDeleteCount;
     protected final int k;
     protected final int dimensions;
-    protected final List<ICluster<T>> subClusters;
+    /**
+     * Immutable list of sub-clusters.  Writers replace it while holding this cluster's lock, so a
+     * reader that takes one reference sees either the old or the new children, never a mix.
+     */
+    protected volatile List<ACluster<T>> subClusters;
     protected final AtomicInteger iterations;
-    protected IVect<T> centroid;
+    protected final AtomicLong distanceCount;
+    protected final AtomicLong skippedDistanceCount;
+    protected volatile StopReason stopReason;
+    protected volatile double radius;
+    protected double[] sums;
+    protected volatile IVect<T> centroid;
+    protected volatile double[] centroidData;
     protected AtomicBoolean calculated;
+    protected BuildOptions options;
+    protected long seed;
 
     public ACluster(int dimensions, int k, IDistanceCalculator<T> distanceCalculator) {
-        this(null, dimensions, k, distanceCalculator);
+        this(null, new VectStore(dimensions), k, distanceCalculator);
     }
 
     public ACluster(ACluster<T> parent,
                     int dimensions,
                     int k,
                     IDistanceCalculator<T> distanceCalculator) {
+        this(parent,
+             parent != null ? parent.store : new VectStore(dimensions),
+             k,
+             distanceCalculator);
+    }
+
+    protected ACluster(ACluster<T> parent,
+                       VectStore store,
+                       int k,
+                       IDistanceCalculator<T> distanceCalculator) {
         this.parent = parent;
+        this.level = parent != null ? parent.level + 1 : 0;
         this.distanceCalculator = distanceCalculator;
-        this.vects = new ArrayList<>();
-        subClusters = new CopyOnWriteArrayList<>();
+        this.store = store;
+        this.leaves = parent != null ? parent.leaves : new LeafIndex<T>();
+        this.ids = new int[INITIAL_CAPACITY];
+        this.count = 0;
+        this.deleted = 0;
+        this.members = new Members(ids, 0);
+        subClusters = Collections.emptyList();
         iterations = new AtomicInteger();
+        distanceCount = new AtomicLong();
+        skippedDistanceCount = new AtomicLong();
+        stopReason = null;
+        radius = Double.POSITIVE_INFINITY;
         this.k = k;
-        this.dimensions = dimensions;
+        this.dimensions = store.getDimensions();
+        sums = new double[dimensions];
         centroid = null;
+        centroidData = null;
         this.calculated = new AtomicBoolean(false);
+        this.options = parent != null ? parent.options : new BuildOptions();
+        this.seed = 0;
     }
 
     @Override
-    public synchronized void add(IVect<T> vect) {
+    public void add(IVect<T> vect) {
+        addVect(vect);
+    }
+
+    /**
+     * Add a vector, as {@link #add(IVect)} does.
+     *
+     * @param vect vector to add.
+     * @return the vector's store id.
+     */
+    synchronized int addVect(IVect<T> vect) {
         if (vect == null) {
             throw new IllegalArgumentException("Vect must not be null");
         }
         if (vect.getDimensions() != dimensions) {
             throw new IllegalArgumentException("Vect must have " + dimensions + " dimensions");
         }
+        int id = store.add(toArray(vect));
+        addId(id);
+        return id;
+    }
+
+    /**
+     * Add a vector that is already held in this cluster's {@link VectStore}.
+     *
+     * @param id id of the vector in the store.
+     */
+    protected synchronized void addId(int id) {
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+        }
+        ids[count++] = id;
+        publishMembers();
+        liveIds = null;
+        leaves.set(id, this);
+        double[] data = store.getData();
+        int offset = store.offset(id);
+        for (int j = 0; j < dimensions; j++) {
+            sums[j] += data[offset + j];
+        }
+        centroid = null;
+        centroidData = null;
+        radius = Double.POSITIVE_INFINITY;
+        calculated.set(false);
+    }
+
+    /**
+     * Add a block of consecutive vectors that are already held in this cluster's
+     * {@link VectStore}.
+     *
+     * @param firstId id of the first vector in the store.
+     * @param count   number of vectors.
+     */
+    protected synchronized void addIds(int firstId, int count) {
+        if (count + this.count > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(count + this.count, ids.length * 2));
+        }
+        liveIds = null;
+        double[] data = store.getData();
+        for (int id = firstId; id < firstId + count; id++) {
+            ids[this.count++] = id;
+            leaves.set(id, this);
+            int offset = store.offset(id);
+            for (int j = 0; j < dimensions; j++) {
+                sums[j] += data[offset + j];
+            }
+        }
+        publishMembers();
         centroid = null;
-        vects.add(vect);
+        centroidData = null;
+        radius = Double.POSITIVE_INFINITY;
         calculated.set(false);
     }
 
+    /**
+     * Insert a vector into a built tree without rebuilding it.  The vector descends from this
+     * cluster to the leaf with the nearest centroid, joining every cluster on the way; their
+     * running sums, centroids and covering radii are updated in place rather than invalidated.
+     * A leaf that grows past {@link BuildOptions#getLeafSplitThreshold()} members is split into
+     * K sub-clusters with a local k-means, so the tree stays balanced without global rebuilds.
+     *
+     * @param vect vector to insert.
+     * @return the vector's store id.
+     */
+    public int insert(IVect<T> vect) {
+        if (vect == null) {
+            throw new IllegalArgumentException("Vect must not be null");
+        }
+        if (vect.getDimensions() != dimensions) {
+            throw new IllegalArgumentException("Vect must have " + dimensions + " dimensions");
+        }
+        int id = store.add(toArray(vect));
+        insertPath(id).splitIfFull();
+        return id;
+    }
+
+    /**
+     * Add a vector held in the {@link VectStore} to this cluster and the sub-clusters on the way
+     * to the leaf with the nearest centroid.
+     *
+     * @param id id of the vector in the store.
+     * @return the leaf the vector joined.
+     */
+    ACluster<T> insertPath(int id) {
+        double[] data = store.getData();
+        int offset = store.offset(id);
+        // Each sub-cluster is chosen and joined while holding its parent's lock, so that
+        // compact() never merges away a sub-cluster the vector is about to join.
+        ACluster<T> cluster = this;
+        boolean leaf = cluster.insertId(id);
+        while (!leaf) {
+            ACluster<T> nearestSubCluster = null;
+            synchronized (cluster) {
+                double minDistance = Double.POSITIVE_INFINITY;
+                for (ACluster<T> subCluster : cluster.subClusters) {
+                    double distance = squaredDistance(data,
+                                                      offset,
+                                                      subCluster.getCentroidData(),
+                                                      0,
+                                                      minDistance);
+                    if (nearestSubCluster == null || distance < minDistance) {
+                        minDistance = distance;
+                        nearestSubCluster = subCluster;
+                    }
+                }
+                if (nearestSubCluster != null) {
+                    leaf = nearestSubCluster.insertId(id);
+                }
+            }
+            if (nearestSubCluster == null) {
+                break;
+            }
+            cluster = nearestSubCluster;
+        }
+        return cluster;
+    }
+
+    /**
+     * Split this leaf into K sub-clusters with a local k-means once it has grown past
+     * {@link BuildOptions#getLeafSplitThreshold()} members.  The k-means runs without holding
+     * this cluster's lock, so inserts and removes reaching the leaf in the meantime are not held
+     * up; see {@link #calculate(boolean)}.
+     */
+    void splitIfFull() {
+        synchronized (this) {
+            if (!subClusters.isEmpty() ||
+                calculating ||
+                count - deleted <= options.getLeafSplitThreshold()) {
+                return;
+            }
+        }
+        calculate(true);
+    }
+
+    /**
+     * Add a vector held in the {@link VectStore} to a calculated cluster, keeping its sub-clusters.
+     * The centroid is moved by the vector's share of the mean, and the covering radius grows by
+     * the centroid's shift, which keeps it an upper bound on every member's distance.
+     *
+     * @param id id of the vector in the store.
+     * @return <code>true</code> if this cluster had no sub-clusters when the vector joined it,
+     *         which ends the vector's descent here.
+     */
+    protected synchronized boolean insertId(int id) {
+        double[] oldCentroid = count > deleted ? getCentroidData() : null;
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+        }
+        ids[count++] = id;
+        publishMembers();
+        liveIds = null;
+        boolean leaf = subClusters.isEmpty();
+        if (leaf) {
+            leaves.set(id, this);
+        }
+        double[] data = store.getData();
+        int offset = store.offset(id);
+        double[] newCentroid = new double[dimensions];
+        for (int j = 0; j < dimensions; j++) {
+            sums[j] += data[offset + j];
+            newCentroid[j] = sums[j] / (count - deleted);
+        }
+        double reach = Math.sqrt(squaredDistance(data, offset, newCentroid, 0));
+        if (oldCentroid == null) {
+            radius = reach;
+        } else {
+            double shift = Math.sqrt(squaredDistance(oldCentroid, 0, newCentroid, 0));
+            radius = Math.max(radius + shift, reach);
+        }
+        centroidData = newCentroid;
+        centroid = null;
+        return leaf;
+    }
+
+    /**
+     * Remove a vector from this cluster and the sub-clusters holding it.  The vector is marked
+     * deleted in the {@link VectStore}'s tombstone bitset and subtracted from the running sums of
+     * every cluster on its path, but stays in their member arrays until {@link #compact()}.
+     * Searches skip it in the meantime.
+     *
+     * @param id id of the vector in the store.
+     * @return <code>true</code> if the vector was a member and had not already been removed.
+     */
+    @Override
+    public boolean remove(int id) {
+        if (!hasMember(id) || !store.delete(id)) {
+            return false;
+        }
+        deletePath(id);
+        store.markCompactable(id);
+        return true;
+    }
+
+    /**
+     * Subtract a vector already marked deleted from this cluster and every sub-cluster on its
+     * path.  The path is found by following parent links up from the leaf recorded in the tree's
+     * {@link LeafIndex}, so the cost grows with the depth of the tree rather than its size.  As in
+     * {@link #insert(IVect)}, each sub-cluster is found and updated while holding its parent's
+     * lock, which keeps it from being merged away or split in the meantime.
+     *
+     * @param id id of the vector in the store.
+     */
+    void deletePath(int id) {
+        ACluster<T> cluster = this;
+        boolean leaf = cluster.deleteId(id);
+        while (!leaf) {
+            ACluster<T> next;
+            synchronized (cluster) {
+                next = cluster.childToward(leaves.get(id));
+                if (next != null) {
+                    leaf = next.deleteId(id);
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            cluster = next;
+        }
+    }
+
+    /**
+     * Check whether a vector was added to this cluster, including members removed since the last
+     * compaction.
+     *
+     * @param id id of the vector in the store.
+     * @return <code>true</code> if the vector's leaf is this cluster or one of its descendants.
+     */
+    boolean hasMember(int id) {
+        for (ACluster<T> cluster = leaves.get(id); cluster != null; cluster = cluster.parent) {
+            if (cluster == this) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the sub-cluster of this cluster that is an ancestor of, or is, a leaf.
+     *
+     * @param leaf leaf cluster.
+     * @return the sub-cluster, or <code>null</code> if the leaf is not below this cluster.
+     */
+    private ACluster<T> childToward(ACluster<T> leaf) {
+        for (ACluster<T> cluster = leaf; cluster != null; cluster = cluster.parent) {
+            if (cluster.parent == this) {
+                return cluster;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copy the store ids of this cluster's members that have not been removed.
+     *
+     * @return the live member ids.
+     */
+    protected synchronized int[] getLiveIds() {
+        long[] tombstones = store.getTombstones();
+        int[] liveIds = new int[count - deleted];
+        int liveCount = 0;
+        for (int i = 0; i < count && liveCount < liveIds.length; i++) {
+            if (!VectStore.isDeleted(tombstones, ids[i])) {
+                liveIds[liveCount++] = ids[i];
+            }
+        }
+        return liveCount == liveIds.length ? liveIds : Arrays.copyOf(liveIds, liveCount);
+    }
+
+    /**
+     * Subtract a removed vector from this cluster's running sums, leaving it in the member array.
+     * The covering radius grows by the centroid's shift, as in {@link #insertId(int)}.
+     *
+     * @param id id of the vector in the store.
+     * @return <code>true</code> if this cluster had no sub-clusters when the vector was
+     *         subtracted, which ends the removal's descent here.
+     */
+    protected synchronized boolean deleteId(int id) {
+        double[] oldCentroid = getCentroidData();
+        deleted++;
+        liveIds = null;
+        if (calculating) {
+            if (pendingDeleteCount == pendingDeletes.length) {
+                pendingDeletes = Arrays.copyOf(pendingDeletes, pendingDeleteCount * 2);
+            }
+            pendingDeletes[pendingDeleteCount++] = id;
+        }
+        double[] data = store.getData();
+        int offset = store.offset(id);
+        for (int j = 0; j < dimensions; j++) {
+            sums[j] -= data[offset + j];
+        }
+        if (count > deleted) {
+            double[] newCentroid = new double[dimensions];
+            for (int j = 0; j < dimensions; j++) {
+                newCentroid[j] = sums[j] / (count - deleted);
+            }
+            radius += Math.sqrt(squaredDistance(oldCentroid, 0, newCentroid, 0));
+            centroidData = newCentroid;
+        }
+        centroid = null;
+        return subClusters.isEmpty();
+    }
+
+    /**
+     * Get the fraction of this cluster's member array taken by removed vectors awaiting
+     * compaction.
+     *
+     * @return the deleted fraction.
+     */
+    public synchronized double getDeletedFraction() {
+        return count > 0 ? (double) deleted / count : 0;
+    }
+
+    /**
+     * Rewrite the member arrays of this cluster and its sub-clusters without removed vectors.
+     * Sub-clusters left empty are dropped, leaves with fewer than K members are merged into the
+     * sibling leaf with the nearest centroid, and a cluster left with a single leaf becomes a
+     * leaf itself.  Member arrays are replaced rather than modified, so concurrent searches keep
+     * scanning a consistent snapshot without taking any lock.
+     */
+    public void compact() {
+        purge();
+        for (ACluster<T> subCluster : subClusters) {
+            subCluster.compact();
+        }
+        synchronized (this) {
+            List<ACluster<T>> remaining = new ArrayList<>(subClusters.size());
+            for (ACluster<T> subCluster : subClusters) {
+                if (subCluster.size() > 0) {
+                    remaining.add(subCluster);
+                }
+            }
+            setSubClusters(remaining);
+        }
+        for (ACluster<T> subCluster : subClusters) {
+            if (subCluster.subClusters.isEmpty() && subCluster.size() < k) {
+                ACluster<T> nearestLeaf = null;
+                double minDistance = Double.POSITIVE_INFINITY;
+                for (ACluster<T> sibling : subClusters) {
+                    if (sibling == subCluster || !sibling.subClusters.isEmpty()) {
+                        continue;
+                    }
+                    double distance = squaredDistance(subCluster.getCentroidData(),
+                                                      0,
+                                                      sibling.getCentroidData(),
+                                                      0);
+                    if (distance < minDistance) {
+                        minDistance = distance;
+                        nearestLeaf = sibling;
+                    }
+                }
+                if (nearestLeaf != null) {
+                    merge(subCluster, nearestLeaf);
+                }
+            }
+        }
+        synchronized (this) {
+            List<ACluster<T>> children = subClusters;
+            if (children.size() == 1 && children.get(0).subClusters.isEmpty()) {
+                setSubClusters(Collections.<ACluster<T>>emptyList());
+                for (int i = 0; i < count; i++) {
+                    leaves.set(ids[i], this);
+                }
+            }
+            if (subClusters.isEmpty()) {
+                calculated.set(false);
+            }
+        }
+    }
+
+    /**
+     * Move a leaf's live members into a sibling leaf.  The parent's lock keeps inserts and removes
+     * from choosing the leaf while it is merged away.
+     */
+    private synchronized void merge(ACluster<T> leaf, ACluster<T> sibling) {
+        int[] memberIds;
+        int memberCount;
+        synchronized (leaf) {
+            // A leaf that an insert has started to split keeps its members.
+            if (leaf.calculating || !leaf.subClusters.isEmpty()) {
+                return;
+            }
+            // Unlink first, so a search never sees the merged members twice.
+            List<ACluster<T>> remaining = new ArrayList<>(subClusters);
+            remaining.remove(leaf);
+            setSubClusters(remaining);
+            memberIds = leaf.ids;
+            memberCount = leaf.count;
+        }
+        for (int i = 0; i < memberCount; i++) {
+            if (!store.isDeleted(memberIds[i])) {
+                sibling.insertPath(memberIds[i]);
+            }
+        }
+    }
+
+    /**
+     * Replace this cluster's member array with one holding only the vectors not removed.  Vectors
+     * whose removal is still subtracting them from the clusters on their path are kept until the
+     * next compaction, as are the members of a leaf that is being split.
+     */
+    private synchronized void purge() {
+        if (calculating) {
+            return;
+        }
+        long[] compactable = store.getCompactable();
+        int[] live = new int[Math.max(INITIAL_CAPACITY, count)];
+        int liveCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (!VectStore.isDeleted(compactable, ids[i])) {
+                live[liveCount++] = ids[i];
+            }
+        }
+        deleted -= count - liveCount;
+        ids = live;
+        count = liveCount;
+        publishMembers();
+        liveIds = null;
+    }
+
     @Override
     public ICluster<T> getParent() {
         return parent;
@@ -80,12 +568,109 @@ public abstract class ACluster<T> implements ICluster<T> {
 
     @Override
     public synchronized int size() {
-        return vects.size();
+        return count - deleted;
     }
 
     @Override
     public synchronized IVect<T> get(int index) {
-        return vects.get(index);
+        return createVect(getId(index));
+    }
+
+    /**
+     * Get the store id of a member vector.  Once members have been removed, the live ids are
+     * gathered into an array on the first call after each change, so that indexing stays O(1).
+     *
+     * @param index index of the member vector in this cluster.
+     * @return id of the vector in this cluster's {@link VectStore}.
+     */
+    public synchronized int getId(int index) {
+        if (index < 0 || index >= count - deleted) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (count - deleted));
+        }
+        if (deleted == 0) {
+            return ids[index];
+        }
+        if (liveIds == null) {
+            liveIds = getLiveIds();
+        }
+        if (index >= liveIds.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + liveIds.length);
+        }
+        return liveIds[index];
+    }
+
+    public VectStore getStore() {
+        return store;
+    }
+
+    public BuildOptions getOptions() {
+        return options;
+    }
+
+    void setOptions(BuildOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Get the random seed of this cluster: the tree's seed for the root, otherwise a seed derived
+     * from the parent's seed and this cluster's position among its siblings.
+     *
+     * @return this cluster's random seed.
+     */
+    public long getSeed() {
+        return parent == null ? options.getSeed() : seed;
+    }
+
+    /**
+     * Calculate the squared distance between two vectors held in primitive arrays, through the
+     * primitive path of the distance calculator when it has one.
+     *
+     * @param a       array holding the first vector.
+     * @param aOffset offset of the first vector in <code>a</code>.
+     * @param b       array holding the second vector.
+     * @param bOffset offset of the second vector in <code>b</code>.
+     * @return the squared distance between the two vectors.
+     */
+    protected double squaredDistance(double[] a, int aOffset, double[] b, int bOffset) {
+        if (distanceCalculator instanceof IPrimitiveDistanceCalculator) {
+            return ((IPrimitiveDistanceCalculator<T>) distanceCalculator).squaredDistance(
+                    a,
+                    aOffset,
+                    b,
+                    bOffset,
+                    dimensions);
+        }
+        double distance = distanceCalculator.calculateDistance(createMean(a, aOffset),
+                                                               createMean(b, bOffset));
+        return distance * distance;
+    }
+
+    /**
+     * Early-abandon version of {@link #squaredDistance(double[], int, double[], int)}.
+     *
+     * @param a         array holding the first vector.
+     * @param aOffset   offset of the first vector in <code>a</code>.
+     * @param b         array holding the second vector.
+     * @param bOffset   offset of the second vector in <code>b</code>.
+     * @param threshold best-so-far squared distance.
+     * @return the squared distance between the two vectors, or some value greater than
+     * <code>threshold</code> if the calculation was abandoned.
+     */
+    protected double squaredDistance(double[] a,
+                                     int aOffset,
+                                     double[] b,
+                                     int bOffset,
+                                     double threshold) {
+        if (distanceCalculator instanceof IPrimitiveDistanceCalculator) {
+            return ((IPrimitiveDistanceCalculator<T>) distanceCalculator).squaredDistance(
+                    a,
+                    aOffset,
+                    b,
+                    bOffset,
+                    dimensions,
+                    threshold);
+        }
+        return squaredDistance(a, aOffset, b, bOffset);
     }
 
     @Override
@@ -95,58 +680,369 @@ public abstract class ACluster<T> implements ICluster<T> {
 
     @Override
     public IVect<T> getNearestNeighbor(IVect<T> vect, int[] compareCount) {
-        Double minDistance = null;
+        return getNearestNeighbor(vect, 0, compareCount);
+    }
+
+    @Override
+    public IVect<T> getNearestNeighbor(IVect<T> vect, int maxChecks, int[] compareCount) {
+        NeighborList results = new NeighborList(1);
+        search(toArray(vect), maxChecks, results, compareCount);
+        return results.size() > 0 ? createVect(results.getId(0)) : null;
+    }
+
+    @Override
+    public NeighborList getNearestNeighbors(IVect<T> vect,
+                                            int k,
+                                            int maxChecks,
+                                            NeighborList results,
+                                            int[] compareCount) {
+        if (results == null) {
+            results = new NeighborList(k);
+        } else {
+            results.reset(k);
+        }
+        search(toArray(vect), maxChecks, results, compareCount);
+        return results;
+    }
+
+    /**
+     * Best-bin-first search for a query's nearest neighbors, as in FLANN's hierarchical k-means
+     * tree.  The query first descends greedily to the leaf with the nearest centroid at each
+     * level, pushing every sibling it passes onto a min-heap keyed by centroid distance.  While
+     * fewer than <code>maxChecks</code> comparisons have been made, or fewer neighbors than the
+     * results can hold have been found, the nearest unexplored branch is popped and descended in
+     * the same way.  A budget of 0 gives the greedy descent.
+     *
+     * @param query        query vector values.
+     * @param maxChecks    comparison budget.
+     * @param results      receives the nearest neighbors, sorted nearest first.
+     * @param compareCount a 1-element int array to track number of comparisons.
+     */
+    protected void search(double[] query,
+                          int maxChecks,
+                          NeighborList results,
+                          int[] compareCount) {
+        search(Collections.singletonList(this), query, maxChecks, results, compareCount);
+    }
+
+    /**
+     * Best-bin-first search over several trees sharing one {@link VectStore}, as in FLANN's
+     * randomized k-means forest.  The query descends every tree once, pushing the siblings it
+     * passes in all trees onto a single min-heap, so the comparison budget is spent on the nearest
+     * unexplored branches whichever tree they belong to.  When there is more than one tree, a
+     * vector reached through a second tree is skipped without being compared again, using a
+     * visited set kept per thread and cleared after each query.  The query is
+     * reported to the first root's {@link BuildOptions#getMetrics()}.
+     *
+     * @param roots        root clusters of the trees.
+     * @param query        query vector values.
+     * @param maxChecks    comparison budget shared by all the trees.
+     * @param results      receives the nearest neighbors, sorted nearest first.
+     * @param compareCount a 1-element int array to track number of comparisons.
+     * @param <T>          vector value type.
+     */
+    protected static <T> void search(List<? extends ACluster<T>> roots,
+                                     double[] query,
+                                     int maxChecks,
+                                     NeighborList results,
+                                     int[] compareCount) {
+        search(roots, null, null, 0, query, maxChecks, results, compareCount);
+    }
+
+    /**
+     * Best-bin-first search of one tree whose root's sub-clusters have already been compared with
+     * the query, as {@link BatchSearch} does to group its queries.  The query starts at the
+     * nearest sub-cluster with the others queued as branches, so the root level is neither
+     * compared nor counted a second time, although its comparisons still come out of
+     * <code>maxChecks</code>.
+     *
+     * @param root           root cluster.
+     * @param children       the root's sub-clusters as they were when compared.
+     * @param distances      squared distances of the query from the sub-clusters' centroids.
+     * @param distanceOffset offset of the first sub-cluster's distance in
+     *                       <code>distances</code>.
+     * @param query          query vector values.
+     * @param maxChecks      comparison budget, including the root level.
+     * @param results        receives the nearest neighbors, sorted nearest first.
+     * @param compareCount   a 1-element int array to track number of comparisons made here.
+     * @param <T>            vector value type.
+     */
+    static <T> void search(ACluster<T> root,
+                           List<ACluster<T>> children,
+                           double[] distances,
+                           int distanceOffset,
+                           double[] query,
+                           int maxChecks,
+                           NeighborList results,
+                           int[] compareCount) {
+        search(Collections.singletonList(root),
+               children.isEmpty() ? null : children,
+               distances,
+               distanceOffset,
+               query,
+               maxChecks,
+               results,
+               compareCount);
+    }
+
+    private static <T> void search(List<? extends ACluster<T>> roots,
+                                   List<ACluster<T>> children,
+                                   double[] distances,
+                                   int distanceOffset,
+                                   double[] query,
+                                   int maxChecks,
+                                   NeighborList results,
+                                   int[] compareCount) {
+        IMetrics metrics = roots.get(0).options.getMetrics();
+        boolean measured = metrics.isEnabled();
+        long startTime = measured ? System.nanoTime() : 0;
+        int[] levelVisits = measured ? new int[IMetrics.MAX_LEVELS] : null;
+        PriorityQueue<Branch<T>> branches = new PriorityQueue<>();
+        VisitedSet seen = roots.size() > 1 ? VISITED.get() : null;
+        int start = compareCount[0];
+        if (children == null) {
+            for (ACluster<T> root : roots) {
+                root.descend(query, branches, compareCount, levelVisits)
+                    .scan(query, results, seen, compareCount);
+            }
+        } else {
+            start -= children.size();
+            if (levelVisits != null) {
+                levelVisits[Math.min(roots.get(0).level, IMetrics.MAX_LEVELS - 1)]++;
+            }
+            int nearest = 0;
+            for (int i = 1; i < children.size(); i++) {
+                if (distances[distanceOffset + i] < distances[distanceOffset + nearest]) {
+                    nearest = i;
+                }
+            }
+            for (int i = 0; i < children.size(); i++) {
+                if (i != nearest) {
+                    branches.add(new Branch<>(children.get(i), distances[distanceOffset + i]));
+                }
+            }
+            children.get(nearest)
+                    .descend(query, branches, compareCount, levelVisits)
+                    .scan(query, results, seen, compareCount);
+        }
+        while (compareCount[0] - start < maxChecks || !results.isFull()) {
+            Branch<T> branch = branches.poll();
+            if (branch == null) {
+                break;
+            }
+            branch.cluster.descend(query, branches, compareCount, levelVisits)
+                          .scan(query, results, seen, compareCount);
+        }
+        results.finish();
+        if (seen != null) {
+            seen.clear();
+        }
+        if (measured) {
+            metrics.recordQuery(System.nanoTime() - startTime,
+                                compareCount[0] - start,
+                                levelVisits);
+        }
+    }
 
-        if (!subClusters.isEmpty()) {
+    /**
+     * Compare a query with every member of this cluster, as of the last published member array.
+     * No lock is taken, so a scan never waits on inserts, removes or compaction.
+     *
+     * @param query        query vector values.
+     * @param results      receives members nearer than its threshold.
+     * @param seen         store ids already compared, or <code>null</code> to compare them all.
+     * @param compareCount a 1-element int array to track number of comparisons.
+     */
+    private void scan(double[] query,
+                      NeighborList results,
+                      VisitedSet seen,
+                      int[] compareCount) {
+        Members snapshot = members;
+        int[] memberIds = snapshot.ids;
+        double[] data = store.getData();
+        long[] tombstones = store.getTombstones();
+        for (int i = 0; i < snapshot.count; i++) {
+            int id = memberIds[i];
+            if (VectStore.isDeleted(tombstones, id)) {
+                continue;
+            }
+            if (seen != null && !seen.add(id)) {
+                continue;
+            }
+            double threshold = results.getThreshold();
+            double distance = squaredDistance(query, 0, data, store.offset(id), threshold);
+            compareCount[0]++;
+            if (distance < threshold) {
+                results.offer(id, distance);
+            }
+        }
+    }
 
-            // There are sub-clusters, so find the sub-cluster with the nearest centroid, then
-            // return its nearest neighbor.
-            ICluster<T> nearestSubCluster = null;
-            for (ICluster<T> subCluster : subClusters) {
-                double distance = distanceCalculator.calculateDistance(
-                        vect,
-                        subCluster.getCentroid());
+    @Override
+    public void rangeSearch(IVect<T> vect,
+                            double radius,
+                            INeighborVisitor visitor,
+                            int[] compareCount) {
+        rangeSearch(toArray(vect), radius, visitor, compareCount);
+    }
+
+    /**
+     * Visit every member within <code>radius</code> of a query.  A sub-cluster is skipped when
+     * the triangle inequality shows that none of its members can be in range: the query's
+     * distance from its centroid, less its covering radius, exceeds <code>radius</code>.  This
+     * requires the distance calculator to be a metric.
+     *
+     * @param query        query vector values.
+     * @param radius       query radius.
+     * @param visitor      receives each match as it is found.
+     * @param compareCount a 1-element int array to track number of comparisons.
+     * @return <code>false</code> if the visitor stopped the query.
+     */
+    protected boolean rangeSearch(double[] query,
+                                  double radius,
+                                  INeighborVisitor visitor,
+                                  int[] compareCount) {
+        double squaredRadius = radius * radius;
+        Deque<ACluster<T>> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            ACluster<T> cluster = pending.pop();
+            List<ACluster<T>> children = cluster.subClusters;
+            if (!children.isEmpty()) {
+                for (ACluster<T> subCluster : children) {
+                    double distance = Math.sqrt(squaredDistance(query,
+                                                                0,
+                                                                subCluster.getCentroidData(),
+                                                                0));
+                    compareCount[0]++;
+                    if (distance - subCluster.radius <= radius) {
+                        pending.push(subCluster);
+                    }
+                }
+                continue;
+            }
+
+            Members snapshot = cluster.members;
+            int[] memberIds = snapshot.ids;
+            double[] data = store.getData();
+            long[] tombstones = store.getTombstones();
+            for (int i = 0; i < snapshot.count; i++) {
+                if (VectStore.isDeleted(tombstones, memberIds[i])) {
+                    continue;
+                }
+                double distance = squaredDistance(query,
+                                                  0,
+                                                  data,
+                                                  store.offset(memberIds[i]),
+                                                  squaredRadius);
                 compareCount[0]++;
-                if (minDistance == null || distance < minDistance) {
-                    minDistance = distance;
-                    nearestSubCluster = subCluster;
+                if (distance <= squaredRadius &&
+                    !visitor.visit(memberIds[i], Math.sqrt(distance))) {
+                    return false;
                 }
             }
+        }
+        return true;
+    }
 
-            // Calling getNearestNeighbor on the nearest sub-cluster will eventually drill down
-            // to the maximum depth, at which point that sub-cluster's actual members will be
-            // compared.
-            return nearestSubCluster != null ?
-                   nearestSubCluster.getNearestNeighbor(vect, compareCount) :
-                   null;
-        } else {
-            // There aren't any sub-clusters, so find the vect's actual nearest neighbor.
-            IVect<T> nearestNeighbor = null;
-            for (IVect<T> memberVect : vects) {
-                double distance = distanceCalculator.calculateDistance(vect, memberVect);
+    /**
+     * Get the covering radius of this cluster: the largest distance of any member from the
+     * centroid, measured when the parent cluster was calculated.
+     *
+     * @return the covering radius, or infinity if it is not known.
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * Descend from this cluster to the leaf with the nearest centroid at each level.
+     *
+     * @param query        query vector values.
+     * @param branches     receives the sub-clusters passed over on the way down, or
+     *                     <code>null</code> to discard them.
+     * @param compareCount a 1-element int array to track number of comparisons.
+     * @param levelVisits  counts the nodes visited at each level, or <code>null</code> if
+     *                     visits are not being counted.
+     * @return the leaf reached.
+     */
+    protected ACluster<T> descend(double[] query,
+                                  PriorityQueue<Branch<T>> branches,
+                                  int[] compareCount,
+                                  int[] levelVisits) {
+        ACluster<T> cluster = this;
+        while (true) {
+            if (levelVisits != null) {
+                levelVisits[Math.min(cluster.level, IMetrics.MAX_LEVELS - 1)]++;
+            }
+            List<ACluster<T>> children = cluster.subClusters;
+            if (children.isEmpty()) {
+                return cluster;
+            }
+            ACluster<T> nearestSubCluster = null;
+            double minDistance = Double.POSITIVE_INFINITY;
+            for (ACluster<T> subCluster : children) {
+                double distance = squaredDistance(query, 0, subCluster.getCentroidData(), 0);
                 compareCount[0]++;
-                if (minDistance == null || distance < minDistance) {
+                if (nearestSubCluster == null || distance < minDistance) {
+                    if (nearestSubCluster != null && branches != null) {
+                        branches.add(new Branch<>(nearestSubCluster, minDistance));
+                    }
                     minDistance = distance;
-                    nearestNeighbor = memberVect;
+                    nearestSubCluster = subCluster;
+                } else if (branches != null) {
+                    branches.add(new Branch<>(subCluster, distance));
+                }
+            }
+            cluster = nearestSubCluster;
+        }
+    }
+
+    /**
+     * Get the centroid of this cluster as a primitive array.  The centroid is materialized from
+     * the running per-dimension sums the first time it is needed after a change, and published
+     * through a volatile field, so concurrent readers only take the lock when it is missing.  The
+     * returned array is shared and must not be modified.
+     *
+     * @return centroid values of this cluster.
+     */
+    protected double[] getCentroidData() {
+        double[] data = centroidData;
+        if (data == null) {
+            synchronized (this) {
+                data = centroidData;
+                if (data == null) {
+                    data = new double[dimensions];
+                    for (int j = 0; j < dimensions; j++) {
+                        data[j] = sums[j] / (count - deleted);
+                    }
+                    centroidData = data;
                 }
             }
-            return nearestNeighbor;
         }
+        return data;
     }
 
+    /**
+     * Iterate over the members of this cluster that were live when the iterator was created.
+     */
     @Override
     public Iterator<IVect<T>> iterator() {
+        final int[] memberIds = getLiveIds();
         return new Iterator<IVect<T>>() {
             int index = 0;
 
             @Override
-            public synchronized boolean hasNext() {
-                return index < size();
+            public boolean hasNext() {
+                return index < memberIds.length;
             }
 
             @Override
-            public synchronized IVect<T> next() {
-                return vects.get(index++);
+            public IVect<T> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return createVect(memberIds[index++]);
             }
         };
     }
@@ -156,6 +1052,20 @@ public abstract class ACluster<T> implements ICluster<T> {
         return new ArrayList<>(subClusters);
     }
 
+    /**
+     * Publish a new list of sub-clusters with a single write.  Callers hold this cluster's lock.
+     */
+    private void setSubClusters(List<ACluster<T>> clusters) {
+        subClusters = Collections.unmodifiableList(new ArrayList<>(clusters));
+    }
+
+    /**
+     * Publish the member array and count for lock-free scans.  Callers hold this cluster's lock.
+     */
+    private void publishMembers() {
+        members = new Members(ids, count);
+    }
+
     @Override
     public int getK() {
         return k;
@@ -165,16 +1075,95 @@ public abstract class ACluster<T> implements ICluster<T> {
         return iterations.get();
     }
 
+    /**
+     * Get the reason the last calculation of this cluster's sub-clusters stopped iterating.
+     *
+     * @return the stop reason, or <code>null</code> if this cluster has not been calculated.
+     */
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+
     public int getDimensions() {
         return dimensions;
     }
 
+    /**
+     * Get the number of distance calculations made while calculating this cluster's sub-clusters.
+     *
+     * @return number of distance calculations.
+     */
+    public long getDistanceCount() {
+        return distanceCount.get();
+    }
+
+    /**
+     * Get the number of member-to-mean distance calculations that the assignment algorithm skipped
+     * while calculating this cluster's sub-clusters, compared with the naive Lloyd assignment.
+     *
+     * @return number of skipped distance calculations.
+     */
+    public long getSkippedDistanceCount() {
+        return skippedDistanceCount.get();
+    }
+
     @Override
     public List<? extends ICluster<T>> calculate() {
         return calculate(true);
     }
 
-    protected abstract ICluster<T> createSubCluster();
+    /**
+     * Discard this cluster's sub-clusters, so that the next {@link #calculate()} seeds and
+     * clusters its members again.  The members, running sums and metrics counters are kept.
+     *
+     * @throws IllegalStateException if this cluster is being calculated.
+     */
+    public synchronized void reset() {
+        if (calculating) {
+            throw new IllegalStateException("Cluster is being calculated");
+        }
+        for (int i = 0; i < count; i++) {
+            leaves.set(ids[i], this);
+        }
+        setSubClusters(Collections.<ACluster<T>>emptyList());
+        stopReason = null;
+        calculated.set(false);
+    }
+
+    protected abstract ACluster<T> createSubCluster();
+
+    /**
+     * Create an empty root cluster of the same type and K as this one, sharing this cluster's
+     * {@link VectStore}.  Used to build several trees over the same vectors.
+     *
+     * @return the new root cluster.
+     */
+    protected abstract ACluster<T> createRoot();
+
+    /**
+     * Convert a vector into the primitive representation held by the {@link VectStore}.
+     *
+     * @param vect vector to convert.
+     * @return the vector's values.
+     */
+    protected abstract double[] toArray(IVect<T> vect);
+
+    /**
+     * Create an IVect for a vector held in the {@link VectStore}.
+     *
+     * @param id id of the vector in the store.
+     * @return IVect holding the stored values.
+     */
+    protected abstract IVect<T> createVect(int id);
+
+    /**
+     * Create an IVect for a mean (or any other vector) held in a primitive array.
+     *
+     * @param means  array holding the mean.
+     * @param offset offset of the mean in <code>means</code>.
+     * @return IVect holding a copy of the mean's values.
+     */
+    protected abstract IVect<T> createMean(double[] means, int offset);
 
     protected List<? extends ICluster<T>> calculate(boolean updateCalculated) {
         if (calculated.get()) {
@@ -184,98 +1173,367 @@ public abstract class ACluster<T> implements ICluster<T> {
         if (k > size()) {
             return null;
         }
-        List<IVect<T>> means = new ArrayList<>();
-        if (subClusters.isEmpty()) {
-            synchronized (this) {
-                for (int i = 0; i < k && i < vects.size(); i++) {
-                    means.add(vects.get(i));
+
+        long startTime = options.getMetrics().isEnabled() ? System.nanoTime() : 0;
+        int[] memberIds;
+        int memberCount = 0;
+        int snapshotCount;
+        synchronized (this) {
+            if (calculating) {
+                return null;
+            }
+            calculating = true;
+            pendingDeletes = new int[INITIAL_CAPACITY];
+            pendingDeleteCount = 0;
+            snapshotCount = count;
+            memberIds = new int[count];
+            long[] tombstones = store.getTombstones();
+            for (int i = 0; i < count; i++) {
+                if (!VectStore.isDeleted(tombstones, ids[i])) {
+                    memberIds[memberCount++] = ids[i];
                 }
             }
-        } else {
-            for (ICluster<T> cluster : subClusters) {
-                means.add(cluster.getCentroid());
+        }
+        try {
+            return calculate(updateCalculated, memberIds, memberCount, snapshotCount, startTime);
+        } finally {
+            synchronized (this) {
+                calculating = false;
+                pendingDeletes = null;
             }
         }
+    }
 
-        subClusters.clear();
-        ExecutorService executor = Executors.newFixedThreadPool(MAX_THREADS);
-
-        List<Future<NearestMean>> futures = new ArrayList<>();
-        synchronized (this) {
-            for (IVect<T> vect : vects) {
-                futures.add(executor.submit(new NearestMeanTask(vect, means)));
+    /**
+     * Run k-means over a snapshot of the live members, then publish the sub-clusters.  The
+     * k-means runs without holding this cluster's lock.  Vectors that join this cluster in the
+     * meantime are appended after the snapshot, and are passed on to their nearest sub-cluster
+     * when the sub-clusters are published; vectors removed in the meantime are recorded by
+     * {@link #deleteId(int)} and subtracted from the sub-cluster holding them.
+     */
+    private List<? extends ICluster<T>> calculate(boolean updateCalculated,
+                                                  int[] memberIds,
+                                                  int memberCount,
+                                                  int snapshotCount,
+                                                  long startTime) {
+        IMetrics metrics = options.getMetrics();
+        Random random = new Random(getSeed());
+        double[] means = new double[k * dimensions];
+        int meanCount = 0;
+        List<ACluster<T>> previous = subClusters;
+        if (previous.isEmpty()) {
+            meanCount = options.getSeedingStrategy().seed(this,
+                                                          memberIds,
+                                                          memberCount,
+                                                          k,
+                                                          random,
+                                                          means);
+        } else {
+            for (ACluster<T> cluster : previous) {
+                System.arraycopy(cluster.getCentroidData(),
+                                 0,
+                                 means,
+                                 meanCount++ * dimensions,
+                                 dimensions);
             }
         }
-        executor.shutdown();
 
-        Map<IVect<T>, ICluster<T>> clusterMap = new HashMap<>();
-        try {
-            for (Future<NearestMean> future : futures) {
-                NearestMean nearestMean = future.get();
-                ICluster<T> cluster = clusterMap.get(nearestMean.nearestMean);
-                if (cluster == null) {
-                    cluster = createSubCluster();
-                    clusterMap.put(nearestMean.nearestMean, cluster);
+        // Large clusters can move their means with mini-batch k-means first, and then only need
+        // a single full assignment pass below.
+        boolean miniBatch = memberCount >= options.getMiniBatchThreshold();
+        if (miniBatch) {
+            miniBatch(memberIds, memberCount, means, meanCount, random);
+        }
+
+        // Lloyd iterations: assign every member to its nearest mean, then move each mean to the
+        // average of its members (built from the per-chunk partial sums) until one of the stop
+        // conditions holds.  Means that lose all of their members are dropped.  How the
+        // assignment step finds the nearest means is up to the AssignmentEngine.
+        int[] assignments = new int[memberCount];
+        AssignmentEngine engine = AssignmentEngine.create(options.getAssignmentAlgorithm(),
+                                                          this,
+                                                          memberIds,
+                                                          memberCount,
+                                                          assignments,
+                                                          k);
+        double[] meanSums = new double[meanCount * dimensions];
+        int[] counts = new int[meanCount];
+        int[] remap = new int[meanCount];
+        double maxShift = options.getTolerance() > 0 ?
+                          options.getTolerance() * spread(memberIds, memberCount) :
+                          0;
+        int maxChanged = (int) (options.getMinChangedFraction() * memberCount);
+        int iteration = 0;
+        int assignedMeanCount = meanCount;
+        StopReason reason = null;
+        while (reason == null) {
+            engine.assign(means, meanCount, meanSums, counts);
+            assignedMeanCount = meanCount;
+
+            boolean stable = true;
+            double shift = 0;
+            int nextMeanCount = 0;
+            for (int i = 0; i < meanCount; i++) {
+                if (counts[i] == 0) {
+                    remap[i] = -1;
+                    continue;
                 }
-                cluster.add(nearestMean.vect);
+                int meanOffset = i * dimensions;
+                int nextOffset = nextMeanCount * dimensions;
+                double meanShift = 0;
+                for (int j = 0; j < dimensions; j++) {
+                    double mean = meanSums[meanOffset + j] / counts[i];
+                    double diff = mean - means[meanOffset + j];
+                    if (diff != 0) {
+                        stable = false;
+                        meanShift += diff * diff;
+                    }
+                    means[nextOffset + j] = mean;
+                }
+                shift = Math.max(shift, meanShift);
+                remap[i] = nextMeanCount++;
+            }
+            if (nextMeanCount != meanCount) {
+                for (int i = 0; i < memberCount; i++) {
+                    assignments[i] = remap[assignments[i]];
+                }
+                engine.compact(Arrays.copyOf(remap, meanCount), nextMeanCount);
+                meanCount = nextMeanCount;
+            }
+            iteration++;
+            iterations.incrementAndGet();
 
+            if (stable) {
+                reason = StopReason.CONVERGED;
+            } else if (miniBatch) {
+                // A single full pass is enough to turn the mini-batch means into the centroids
+                // of their assigned members.
+                reason = StopReason.MINI_BATCH;
+            } else if (Math.sqrt(shift) <= maxShift) {
+                reason = StopReason.TOLERANCE;
+            } else if (iteration > 1 && engine.getChangedCount() < maxChanged) {
+                reason = StopReason.ASSIGNMENTS_STABLE;
+            } else if (iteration >= options.getMaxIterations()) {
+                reason = StopReason.MAX_ITERATIONS;
             }
-        } catch (Exception e) {
-            throw new IllegalStateException(e);
         }
+        stopReason = reason;
+        distanceCount.addAndGet(engine.getDistanceCount());
+        skippedDistanceCount.addAndGet(engine.getSkippedCount());
 
-        boolean stable = true;
-        for (IVect<T> mean : means) {
-            ICluster<T> cluster = clusterMap.get(mean);
-            if (cluster != null) {
-                subClusters.add(cluster);
-                IVect<T> clusterMean = cluster.getCentroid();
-                if (!mean.equals(clusterMean)) {
-                    stable = false;
+        List<ACluster<T>> clusters = new ArrayList<>(meanCount);
+        for (int i = 0; i < meanCount; i++) {
+            ACluster<T> cluster = createSubCluster();
+            cluster.seed = deriveSeed(getSeed(), i);
+            cluster.centroidData = Arrays.copyOfRange(means,
+                                                      i * dimensions,
+                                                      (i + 1) * dimensions);
+            clusters.add(cluster);
+        }
+        // The last assignment's sums (indexed before any means were dropped) become the
+        // sub-clusters' running sums.
+        for (int i = 0; i < assignedMeanCount; i++) {
+            if (remap[i] >= 0) {
+                System.arraycopy(meanSums,
+                                 i * dimensions,
+                                 clusters.get(remap[i]).sums,
+                                 0,
+                                 dimensions);
+            }
+        }
+        // Fill the sub-clusters, measuring each one's covering radius on the way.
+        double[] radii = new double[meanCount];
+        double[] data = store.getData();
+        for (int i = 0; i < memberCount; i++) {
+            ACluster<T> cluster = clusters.get(assignments[i]);
+            synchronized (cluster) {
+                if (cluster.count == cluster.ids.length) {
+                    cluster.ids = Arrays.copyOf(cluster.ids, cluster.count * 2);
                 }
+                cluster.ids[cluster.count++] = memberIds[i];
+            }
+            radii[assignments[i]] = Math.max(radii[assignments[i]],
+                                             squaredDistance(data,
+                                                             store.offset(memberIds[i]),
+                                                             means,
+                                                             assignments[i] * dimensions));
+        }
+        for (int i = 0; i < meanCount; i++) {
+            ACluster<T> cluster = clusters.get(i);
+            synchronized (cluster) {
+                cluster.publishMembers();
             }
+            cluster.radius = Math.sqrt(radii[i]);
         }
-        iterations.incrementAndGet();
-        if (!stable) {
-            calculate(false);
+        synchronized (this) {
+            for (int i = 0; i < memberCount; i++) {
+                leaves.set(memberIds[i], clusters.get(assignments[i]));
+            }
+            for (int i = snapshotCount; i < count; i++) {
+                nearest(clusters, ids[i]).insertId(ids[i]);
+            }
+            for (int i = 0; i < pendingDeleteCount; i++) {
+                ACluster<T> cluster = leaves.get(pendingDeletes[i]);
+                if (cluster != this) {
+                    cluster.deleteId(pendingDeletes[i]);
+                }
+            }
+            setSubClusters(clusters);
         }
         if (updateCalculated) {
             calculated.set(true);
         }
+        if (metrics.isEnabled()) {
+            int[] sizes = new int[meanCount];
+            for (int i = 0; i < meanCount; i++) {
+                sizes[i] = clusters.get(i).size();
+            }
+            metrics.recordBuild(level,
+                                memberCount,
+                                iteration,
+                                System.nanoTime() - startTime,
+                                sizes);
+        }
         return getSubClusters();
     }
 
-    protected class NearestMeanTask implements Callable<NearestMean> {
-        private final IVect<T> vect;
-        private final List<IVect<T>> means;
+    /**
+     * Find the cluster whose centroid is nearest to a vector held in the {@link VectStore}.
+     */
+    private ACluster<T> nearest(List<ACluster<T>> clusters, int id) {
+        double[] data = store.getData();
+        int offset = store.offset(id);
+        ACluster<T> nearestCluster = null;
+        double minDistance = Double.POSITIVE_INFINITY;
+        for (ACluster<T> cluster : clusters) {
+            double distance = squaredDistance(data,
+                                              offset,
+                                              cluster.getCentroidData(),
+                                              0,
+                                              minDistance);
+            if (nearestCluster == null || distance < minDistance) {
+                minDistance = distance;
+                nearestCluster = cluster;
+            }
+        }
+        return nearestCluster;
+    }
 
-        public NearestMeanTask(IVect<T> vect, List<IVect<T>> means) {
-            this.vect = vect;
-            this.means = means;
+    /**
+     * Get the root-mean-square distance of the members from their centroid, which scales the
+     * relative centroid-shift tolerance.
+     */
+    private double spread(int[] memberIds, int memberCount) {
+        double[] data = store.getData();
+        double[] centroid = new double[dimensions];
+        double sumOfSquares = 0;
+        for (int i = 0; i < memberCount; i++) {
+            int offset = store.offset(memberIds[i]);
+            for (int j = 0; j < dimensions; j++) {
+                double value = data[offset + j];
+                centroid[j] += value;
+                sumOfSquares += value * value;
+            }
         }
+        double centroidSquare = 0;
+        for (int j = 0; j < dimensions; j++) {
+            centroid[j] /= memberCount;
+            centroidSquare += centroid[j] * centroid[j];
+        }
+        return Math.sqrt(Math.max(0, sumOfSquares / memberCount - centroidSquare));
+    }
 
-        @Override
-        public NearestMean call() throws Exception {
-            IVect<T> nearestMean = null;
-            Double minDistance = null;
-            for (IVect<T> mean : means) {
-                double distance = distanceCalculator.calculateDistance(vect, mean);
-                if (minDistance == null || distance < minDistance) {
-                    minDistance = distance;
-                    nearestMean = mean;
+    /**
+     * Move the means with mini-batch k-means (Sculley): each iteration samples
+     * {@link BuildOptions#getMiniBatchSize()} members, finds their nearest means, then moves each
+     * of those means towards its sampled members with a per-mean learning rate of one over the
+     * number of members it has been assigned so far.
+     *
+     * @param memberIds   store ids of the members.
+     * @param memberCount number of members.
+     * @param means       means, row-major, updated in place.
+     * @param meanCount   number of means.
+     * @param random      random source for sampling.
+     */
+    protected void miniBatch(int[] memberIds,
+                             int memberCount,
+                             double[] means,
+                             int meanCount,
+                             Random random) {
+        int batchSize = options.getMiniBatchSize();
+        int[] batch = new int[batchSize];
+        int[] nearest = new int[batchSize];
+        int[] assigned = new int[meanCount];
+        long distances = 0;
+        for (int iteration = 0; iteration < options.getMiniBatchIterations(); iteration++) {
+            double[] data = store.getData();
+            for (int i = 0; i < batchSize; i++) {
+                batch[i] = store.offset(memberIds[random.nextInt(memberCount)]);
+                double minDistance = Double.POSITIVE_INFINITY;
+                for (int j = 0; j < meanCount; j++) {
+                    double distance = squaredDistance(data,
+                                                      batch[i],
+                                                      means,
+                                                      j * dimensions,
+                                                      minDistance);
+                    if (j == 0 || distance < minDistance) {
+                        minDistance = distance;
+                        nearest[i] = j;
+                    }
                 }
+                distances += meanCount;
             }
-            return new NearestMean(vect, nearestMean);
+            for (int i = 0; i < batchSize; i++) {
+                int mean = nearest[i];
+                double rate = 1.0 / ++assigned[mean];
+                int meanOffset = mean * dimensions;
+                for (int j = 0; j < dimensions; j++) {
+                    means[meanOffset + j] += rate * (data[batch[i] + j] - means[meanOffset + j]);
+                }
+            }
+            iterations.incrementAndGet();
         }
+        distanceCount.addAndGet(distances);
+    }
+
+    /**
+     * Derive a sub-cluster's seed from its parent's (SplitMix64 finalizer).
+     */
+    static long deriveSeed(long parentSeed, int index) {
+        long z = parentSeed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
 
-    protected class NearestMean {
-        public final IVect<T> vect;
-        public final IVect<T> nearestMean;
+    /**
+     * A cluster's member array and count, read together by lock-free scans.
+     */
+    private static final class Members {
+        final int[] ids;
+        final int count;
 
-        public NearestMean(IVect<T> vect, IVect<T> nearestMean) {
-            this.vect = vect;
-            this.nearestMean = nearestMean;
+        Members(int[] ids, int count) {
+            this.ids = ids;
+            this.count = count;
+        }
+    }
+
+    /**
+     * An unexplored sub-cluster in a best-bin-first search.
+     */
+    protected static class Branch<T> implements Comparable<Branch<T>> {
+        public final ACluster<T> cluster;
+        public final double distance;
+
+        public Branch(ACluster<T> cluster, double distance) {
+            this.cluster = cluster;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Branch<T> other) {
+            return Double.compare(distance, other.distance);
         }
     }
 }
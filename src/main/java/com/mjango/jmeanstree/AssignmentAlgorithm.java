@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+/**
+ * Algorithms for the assignment step of a cluster's Lloyd iterations.  All of them produce the
+ * same assignments; the accelerated ones use the triangle inequality to skip distance
+ * calculations, so they require a distance calculator that is a metric (the square root of the
+ * primitive squared distance is used as the distance).
+ */
+public enum AssignmentAlgorithm {
+    /**
+     * Compare every member with every mean, every iteration.
+     */
+    LLOYD,
+
+    /**
+     * Hamerly's algorithm: one upper and one lower bound per member.  Cheap to maintain, best for
+     * small K.
+     */
+    HAMERLY,
+
+    /**
+     * Elkan's algorithm: one upper bound and K lower bounds per member, plus the distances between
+     * all pairs of means.  Skips more calculations than Hamerly for larger K, at the cost of
+     * O(n K) memory.
+     */
+    ELKAN,
+
+    /**
+     * Hamerly for K below {@link #ELKAN_MIN_K}, Elkan otherwise.
+     */
+    AUTO;
+
+    public static final int ELKAN_MIN_K = 32;
+
+    /**
+     * Resolve {@link #AUTO} for a given K.
+     *
+     * @param k number of means.
+     * @return the algorithm to use.
+     */
+    public AssignmentAlgorithm resolve(int k) {
+        if (this != AUTO) {
+            return this;
+        }
+        return k < ELKAN_MIN_K ? HAMERLY : ELKAN;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the assignment step of one cluster's Lloyd iterations.  An engine lives for the duration of
+ * a single {@link ACluster#calculate()}, so implementations may keep per-member state between
+ * iterations.  Members are split into chunks of {@link BuildOptions#getChunkSize()} that run on
+ * the tree's shared executor; each chunk accumulates its own partial sums, so the only shared
+ * writes are to disjoint ranges of the per-member arrays.
+ */
+abstract class AssignmentEngine {
+    protected final ACluster<?> cluster;
+    protected final VectStore store;
+    protected final int dimensions;
+    protected final int[] memberIds;
+    protected final int memberCount;
+    protected final int[] assignments;
+    protected double[] means;
+    protected int meanCount;
+    protected double[] previousMeans;
+    protected boolean initialized;
+    private final List<Chunk> chunks;
+    private long distanceCount;
+    private long skippedCount;
+    private int changedCount;
+
+    protected AssignmentEngine(ACluster<?> cluster,
+                               int[] memberIds,
+                               int memberCount,
+                               int[] assignments) {
+        this.cluster = cluster;
+        this.store = cluster.getStore();
+        this.dimensions = store.getDimensions();
+        this.memberIds = memberIds;
+        this.memberCount = memberCount;
+        this.assignments = assignments;
+        this.initialized = false;
+        this.chunks = new ArrayList<>();
+    }
+
+    static AssignmentEngine create(AssignmentAlgorithm algorithm,
+                                   ACluster<?> cluster,
+                                   int[] memberIds,
+                                   int memberCount,
+                                   int[] assignments,
+                                   int k) {
+        switch (algorithm.resolve(k)) {
+            case HAMERLY:
+                return new HamerlyAssignment(cluster, memberIds, memberCount, assignments);
+            case ELKAN:
+                return new ElkanAssignment(cluster, memberIds, memberCount, assignments, k);
+            default:
+                return new LloydAssignment(cluster, memberIds, memberCount, assignments);
+        }
+    }
+
+    /**
+     * Assign each member to its nearest mean.
+     *
+     * @param means     means, row-major.
+     * @param meanCount number of means.
+     * @param sums      receives the per-mean sum of the assigned members.
+     * @param counts    receives the per-mean number of assigned members.
+     */
+    public void assign(double[] means, int meanCount, double[] sums, int[] counts) {
+        this.means = means;
+        this.meanCount = meanCount;
+        distanceCount += prepare();
+
+        // Chunks, and their partial sums, are reused across iterations.  The number of means
+        // never grows, so the first iteration's arrays are always large enough.
+        if (chunks.isEmpty()) {
+            int chunkSize = cluster.getOptions().getChunkSize();
+            for (int from = 0; from < memberCount; from += chunkSize) {
+                chunks.add(new Chunk(from, Math.min(memberCount, from + chunkSize)));
+            }
+        }
+        for (Chunk chunk : chunks) {
+            chunk.reset();
+        }
+        List<Chunk> completed;
+        if (chunks.size() == 1) {
+            chunks.get(0).call();
+            completed = chunks;
+        } else {
+            completed = new ArrayList<>(chunks.size());
+            try {
+                for (Future<Chunk> future : cluster.getOptions().getExecutor().invokeAll(chunks)) {
+                    completed.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        Arrays.fill(sums, 0, meanCount * dimensions, 0);
+        Arrays.fill(counts, 0, meanCount, 0);
+        changedCount = 0;
+        for (Chunk chunk : completed) {
+            changedCount += chunk.changedCount;
+            for (int i = 0; i < meanCount * dimensions; i++) {
+                sums[i] += chunk.sums[i];
+            }
+            for (int i = 0; i < meanCount; i++) {
+                counts[i] += chunk.counts[i];
+            }
+            distanceCount += chunk.distanceCount;
+            skippedCount += (long) (chunk.to - chunk.from) * meanCount - chunk.distanceCount;
+        }
+
+        if (previousMeans == null || previousMeans.length < meanCount * dimensions) {
+            previousMeans = new double[means.length];
+        }
+        System.arraycopy(means, 0, previousMeans, 0, meanCount * dimensions);
+        initialized = true;
+    }
+
+    /**
+     * Drop the means that lost all of their members.  The caller has already compacted the means
+     * and remapped the assignments.
+     *
+     * @param remap        new index of each old mean, or -1 for dropped means.
+     * @param newMeanCount number of remaining means.
+     */
+    public void compact(int[] remap, int newMeanCount) {
+        for (int i = 0; i < remap.length; i++) {
+            if (remap[i] >= 0 && remap[i] != i) {
+                System.arraycopy(previousMeans,
+                                 i * dimensions,
+                                 previousMeans,
+                                 remap[i] * dimensions,
+                                 dimensions);
+            }
+        }
+    }
+
+    /**
+     * Get the number of members whose mean changed during the last assignment.  Every member
+     * counts as changed on the first assignment.
+     *
+     * @return number of members that changed means.
+     */
+    public int getChangedCount() {
+        return changedCount;
+    }
+
+    /**
+     * Get the number of distance calculations performed so far.
+     *
+     * @return number of distance calculations.
+     */
+    public long getDistanceCount() {
+        return distanceCount;
+    }
+
+    /**
+     * Get the number of member-to-mean distance calculations skipped so far, compared with
+     * comparing every member with every mean.
+     *
+     * @return number of skipped distance calculations.
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Per-iteration work done once before the members are assigned.
+     *
+     * @return the number of distance calculations performed.
+     */
+    protected abstract int prepare();
+
+    /**
+     * Find the nearest mean of a single member.
+     *
+     * @param index  index of the member.
+     * @param data   store backing array.
+     * @param offset offset of the member in <code>data</code>.
+     * @param chunk  chunk the member belongs to, for counting distance calculations.
+     * @return index of the nearest mean.
+     */
+    protected abstract int assign(int index, double[] data, int offset, Chunk chunk);
+
+    protected double distance(double[] a, int aOffset, double[] b, int bOffset) {
+        return Math.sqrt(cluster.squaredDistance(a, aOffset, b, bOffset));
+    }
+
+    /**
+     * Distance from each mean to its position in the previous iteration.
+     */
+    protected int shifts(double[] shifts) {
+        for (int i = 0; i < meanCount; i++) {
+            shifts[i] = distance(previousMeans, i * dimensions, means, i * dimensions);
+        }
+        return meanCount;
+    }
+
+    protected class Chunk implements Callable<Chunk> {
+        private final int from;
+        private final int to;
+        private final double[] sums;
+        private final int[] counts;
+        protected long distanceCount;
+        private int changedCount;
+
+        public Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+            this.sums = new double[meanCount * dimensions];
+            this.counts = new int[meanCount];
+        }
+
+        private void reset() {
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            distanceCount = 0;
+            changedCount = 0;
+        }
+
+        @Override
+        public Chunk call() {
+            double[] data = store.getData();
+            for (int i = from; i < to; i++) {
+                int offset = store.offset(memberIds[i]);
+                int nearestMean = assign(i, data, offset, this);
+                if (!initialized || assignments[i] != nearestMean) {
+                    changedCount++;
+                }
+                assignments[i] = nearestMean;
+                counts[nearestMean]++;
+                int meanOffset = nearestMean * dimensions;
+                for (int j = 0; j < dimensions; j++) {
+                    sums[meanOffset + j] += data[offset + j];
+                }
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a batch of k-nearest-neighbor queries on a fork-join pool.  Queries are first routed to
+ * the root's sub-cluster with the nearest centroid, then grouped by that sub-cluster, so that
+ * runs of queries searching the same part of the tree are handled by the same worker one after
+ * another while that part of the tree is hot in cache.  Each search then starts from the
+ * sub-cluster the query was routed to, reusing the root-level distances.
+ */
+class BatchSearch<T> {
+    private static final int GRAIN = 64;
+
+    private final ACluster<T> root;
+    private final List<ACluster<T>> children;
+    private final double[] queries;
+    private final int queryOffset;
+    private final int queryCount;
+    private final int k;
+    private final int maxChecks;
+    private final int[] ids;
+    private final double[] distances;
+    private final double[] rootDistances;
+    private final int[] groups;
+    private final int[] order;
+    private final AtomicLong compareCount;
+
+    BatchSearch(ACluster<T> root,
+                double[] queries,
+                int queryOffset,
+                int queryCount,
+                int k,
+                int maxChecks,
+                int[] ids,
+                double[] distances) {
+        int dimensions = root.getDimensions();
+        if (queryOffset < 0 || queryOffset + (long) queryCount * dimensions > queries.length) {
+            throw new IllegalArgumentException("Queries must hold " + queryCount + " vectors of " +
+                                               dimensions + " dimensions");
+        }
+        if (ids.length < (long) queryCount * k || distances.length < (long) queryCount * k) {
+            throw new IllegalArgumentException("Results must have room for " + k +
+                                               " neighbors per query");
+        }
+        this.root = root;
+        this.children = root.subClusters;
+        this.queries = queries;
+        this.queryOffset = queryOffset;
+        this.queryCount = queryCount;
+        this.k = k;
+        this.maxChecks = maxChecks;
+        this.ids = ids;
+        this.distances = distances;
+        this.rootDistances = new double[queryCount * children.size()];
+        this.groups = new int[queryCount];
+        this.order = new int[queryCount];
+        this.compareCount = new AtomicLong();
+    }
+
+    /**
+     * Run the batch.
+     *
+     * @return the total number of comparisons made.
+     */
+    long run() {
+        BuildOptions options = root.getOptions();
+        options.getForkJoinPool().invoke(new RouteTask(0, queryCount));
+
+        // Counting sort of the queries by group.
+        int groupCount = Math.max(1, children.size());
+        int[] starts = new int[groupCount + 1];
+        for (int i = 0; i < queryCount; i++) {
+            starts[groups[i] + 1]++;
+        }
+        for (int i = 0; i < groupCount; i++) {
+            starts[i + 1] += starts[i];
+        }
+        for (int i = 0; i < queryCount; i++) {
+            order[starts[groups[i]]++] = i;
+        }
+
+        options.getForkJoinPool().invoke(new SearchTask(0, queryCount));
+        return compareCount.get();
+    }
+
+    /**
+     * Finds the index of each query's nearest root sub-cluster, keeping the distances of all the
+     * root's sub-clusters for the search.
+     */
+    private class RouteTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        RouteTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > GRAIN * 16) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RouteTask(from, middle), new RouteTask(middle, to));
+                return;
+            }
+            int dimensions = root.getDimensions();
+            int childCount = children.size();
+            long comparisons = 0;
+            for (int i = from; i < to; i++) {
+                int offset = queryOffset + i * dimensions;
+                int nearest = 0;
+                double minDistance = Double.POSITIVE_INFINITY;
+                for (int j = 0; j < childCount; j++) {
+                    double distance = root.squaredDistance(queries,
+                                                           offset,
+                                                           children.get(j).getCentroidData(),
+                                                           0);
+                    rootDistances[i * childCount + j] = distance;
+                    comparisons++;
+                    if (distance < minDistance) {
+                        minDistance = distance;
+                        nearest = j;
+                    }
+                }
+                groups[i] = nearest;
+            }
+            compareCount.addAndGet(comparisons);
+        }
+    }
+
+    /**
+     * Searches a range of the grouped query order.
+     */
+    private class SearchTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        SearchTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > GRAIN) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SearchTask(from, middle), new SearchTask(middle, to));
+                return;
+            }
+            int dimensions = root.getDimensions();
+            double[] query = new double[dimensions];
+            NeighborList results = new NeighborList(k);
+            int[] comparisons = new int[]{0};
+            for (int i = from; i < to; i++) {
+                int index = order[i];
+                System.arraycopy(queries, queryOffset + index * dimensions, query, 0, dimensions);
+                results.reset(k);
+                ACluster.search(root,
+                                children,
+                                rootDistances,
+                                index * children.size(),
+                                query,
+                                maxChecks,
+                                results,
+                                comparisons);
+                int resultOffset = index * k;
+                for (int j = 0; j < k; j++) {
+                    if (j < results.size()) {
+                        ids[resultOffset + j] = results.getId(j);
+                        distances[resultOffset + j] = results.getDistance(j);
+                    } else {
+                        ids[resultOffset + j] = -1;
+                        distances[resultOffset + j] = Double.POSITIVE_INFINITY;
+                    }
+                }
+            }
+            compareCount.addAndGet(comparisons[0]);
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Settings shared by every cluster of a K-Means tree while it is being calculated.  Instances are
+ * configured through {@link com.mjango.jmeanstree.KMeansTree.Builder} and handed down from each
+ * cluster to its sub-clusters.
+ */
+public class BuildOptions {
+    public static final int DEFAULT_CHUNK_SIZE = 2048;
+    public static final int DEFAULT_SEQUENTIAL_THRESHOLD = 10000;
+    public static final int DEFAULT_MINI_BATCH_SIZE = 1024;
+    public static final int DEFAULT_MINI_BATCH_ITERATIONS = 100;
+    public static final int DEFAULT_MAX_ITERATIONS = 1000;
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.2;
+
+    private ExecutorService executor;
+    private int chunkSize;
+    private boolean forkJoinBuild;
+    private int sequentialThreshold;
+    private ISeedingStrategy seedingStrategy;
+    private long seed;
+    private AssignmentAlgorithm assignmentAlgorithm;
+    private int miniBatchThreshold;
+    private int miniBatchSize;
+    private int miniBatchIterations;
+    private int maxIterations;
+    private double tolerance;
+    private double minChangedFraction;
+    private int leafSplitThreshold;
+    private double compactionThreshold;
+    private IMetrics metrics;
+
+    BuildOptions() {
+        executor = ForkJoinPool.commonPool();
+        chunkSize = DEFAULT_CHUNK_SIZE;
+        forkJoinBuild = false;
+        sequentialThreshold = DEFAULT_SEQUENTIAL_THRESHOLD;
+        seedingStrategy = new FirstKSeeding();
+        seed = 0;
+        assignmentAlgorithm = AssignmentAlgorithm.LLOYD;
+        miniBatchThreshold = Integer.MAX_VALUE;
+        miniBatchSize = DEFAULT_MINI_BATCH_SIZE;
+        miniBatchIterations = DEFAULT_MINI_BATCH_ITERATIONS;
+        maxIterations = DEFAULT_MAX_ITERATIONS;
+        tolerance = 0;
+        minChangedFraction = 0;
+        leafSplitThreshold = Integer.MAX_VALUE;
+        compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+        metrics = NoOpMetrics.INSTANCE;
+    }
+
+    BuildOptions(BuildOptions other) {
+        executor = other.executor;
+        chunkSize = other.chunkSize;
+        forkJoinBuild = other.forkJoinBuild;
+        sequentialThreshold = other.sequentialThreshold;
+        seedingStrategy = other.seedingStrategy;
+        seed = other.seed;
+        assignmentAlgorithm = other.assignmentAlgorithm;
+        miniBatchThreshold = other.miniBatchThreshold;
+        miniBatchSize = other.miniBatchSize;
+        miniBatchIterations = other.miniBatchIterations;
+        maxIterations = other.maxIterations;
+        tolerance = other.tolerance;
+        minChangedFraction = other.minChangedFraction;
+        leafSplitThreshold = other.leafSplitThreshold;
+        compactionThreshold = other.compactionThreshold;
+        metrics = other.metrics;
+    }
+
+    /**
+     * Get the executor that runs the assignment chunks of every cluster in the tree.
+     *
+     * @return the shared executor.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    void setExecutor(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Get the number of vectors assigned by a single task during a k-means iteration.
+     *
+     * @return the assignment chunk size.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Check whether sibling sub-trees are built as independent fork-join tasks.
+     *
+     * @return <code>true</code> if the tree is built with fork-join tasks.
+     */
+    public boolean isForkJoinBuild() {
+        return forkJoinBuild;
+    }
+
+    void setForkJoinBuild(boolean forkJoinBuild) {
+        this.forkJoinBuild = forkJoinBuild;
+    }
+
+    /**
+     * Get the cluster size below which a fork-join build calculates a whole sub-tree on the
+     * current thread instead of forking a task per sub-cluster.
+     *
+     * @return the sequential threshold.
+     */
+    public int getSequentialThreshold() {
+        return sequentialThreshold;
+    }
+
+    void setSequentialThreshold(int sequentialThreshold) {
+        if (sequentialThreshold < 0) {
+            throw new IllegalArgumentException("Sequential threshold must not be negative");
+        }
+        this.sequentialThreshold = sequentialThreshold;
+    }
+
+    /**
+     * Get the pool that runs fork-join builds: the shared executor if it is a ForkJoinPool,
+     * otherwise the common pool.
+     *
+     * @return the fork-join pool.
+     */
+    public ForkJoinPool getForkJoinPool() {
+        return executor instanceof ForkJoinPool ?
+               (ForkJoinPool) executor :
+               ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Get the strategy that chooses each cluster's initial means.
+     *
+     * @return the seeding strategy.
+     */
+    public ISeedingStrategy getSeedingStrategy() {
+        return seedingStrategy;
+    }
+
+    void setSeedingStrategy(ISeedingStrategy seedingStrategy) {
+        if (seedingStrategy == null) {
+            throw new IllegalArgumentException("Seeding strategy must not be null");
+        }
+        this.seedingStrategy = seedingStrategy;
+    }
+
+    /**
+     * Get the random seed of the root cluster.  Every sub-cluster derives its own seed from its
+     * parent's, so a tree built twice with the same seed is identical regardless of the order in
+     * which its clusters are calculated.
+     *
+     * @return the root random seed.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Get the algorithm used for the assignment step of each cluster's Lloyd iterations.
+     *
+     * @return the assignment algorithm.
+     */
+    public AssignmentAlgorithm getAssignmentAlgorithm() {
+        return assignmentAlgorithm;
+    }
+
+    void setAssignmentAlgorithm(AssignmentAlgorithm assignmentAlgorithm) {
+        if (assignmentAlgorithm == null) {
+            throw new IllegalArgumentException("Assignment algorithm must not be null");
+        }
+        this.assignmentAlgorithm = assignmentAlgorithm;
+    }
+
+    /**
+     * Get the cluster size at or above which means are found with mini-batch k-means instead of
+     * full-batch Lloyd iterations.  Mini-batch is disabled by default.
+     *
+     * @return the mini-batch threshold.
+     */
+    public int getMiniBatchThreshold() {
+        return miniBatchThreshold;
+    }
+
+    void setMiniBatchThreshold(int miniBatchThreshold) {
+        if (miniBatchThreshold <= 0) {
+            throw new IllegalArgumentException("Mini-batch threshold must be positive");
+        }
+        this.miniBatchThreshold = miniBatchThreshold;
+    }
+
+    /**
+     * Get the number of members sampled for each mini-batch update.
+     *
+     * @return the mini-batch size.
+     */
+    public int getMiniBatchSize() {
+        return miniBatchSize;
+    }
+
+    void setMiniBatchSize(int miniBatchSize) {
+        if (miniBatchSize <= 0) {
+            throw new IllegalArgumentException("Mini-batch size must be positive");
+        }
+        this.miniBatchSize = miniBatchSize;
+    }
+
+    /**
+     * Get the number of mini-batch updates made before the final full assignment.
+     *
+     * @return the number of mini-batch iterations.
+     */
+    public int getMiniBatchIterations() {
+        return miniBatchIterations;
+    }
+
+    void setMiniBatchIterations(int miniBatchIterations) {
+        if (miniBatchIterations <= 0) {
+            throw new IllegalArgumentException("Mini-batch iterations must be positive");
+        }
+        this.miniBatchIterations = miniBatchIterations;
+    }
+
+    /**
+     * Get the maximum number of Lloyd iterations per cluster.
+     *
+     * @return the iteration cap.
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    void setMaxIterations(int maxIterations) {
+        if (maxIterations <= 0) {
+            throw new IllegalArgumentException("Max iterations must be positive");
+        }
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Get the relative centroid-shift tolerance.  A cluster stops iterating once no mean moved
+     * further than this fraction of the root-mean-square distance of its members from their
+     * centroid.  0 (the default) only stops once no mean moves at all.
+     *
+     * @return the relative tolerance.
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    void setTolerance(double tolerance) {
+        if (tolerance < 0) {
+            throw new IllegalArgumentException("Tolerance must not be negative");
+        }
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Get the fraction of members that must change means for a cluster to keep iterating.  0 (the
+     * default) disables this check.
+     *
+     * @return the minimum changed fraction.
+     */
+    public double getMinChangedFraction() {
+        return minChangedFraction;
+    }
+
+    void setMinChangedFraction(double minChangedFraction) {
+        if (minChangedFraction < 0 || minChangedFraction > 1) {
+            throw new IllegalArgumentException("Min changed fraction must be between 0 and 1");
+        }
+        this.minChangedFraction = minChangedFraction;
+    }
+
+    /**
+     * Get the leaf size above which {@link ACluster#insert(IVect)} splits a leaf into K
+     * sub-clusters with a local k-means.  Splitting is disabled by default.
+     *
+     * @return the leaf split threshold.
+     */
+    public int getLeafSplitThreshold() {
+        return leafSplitThreshold;
+    }
+
+    void setLeafSplitThreshold(int leafSplitThreshold) {
+        if (leafSplitThreshold <= 0) {
+            throw new IllegalArgumentException("Leaf split threshold must be positive");
+        }
+        this.leafSplitThreshold = leafSplitThreshold;
+    }
+
+    /**
+     * Get the fraction of the root's members that must be removed before
+     * {@link KMeansTree#remove(int)} starts a background compaction.
+     *
+     * @return the compaction threshold.
+     */
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    void setCompactionThreshold(double compactionThreshold) {
+        if (compactionThreshold <= 0 || compactionThreshold > 1) {
+            throw new IllegalArgumentException("Compaction threshold must be in (0, 1]");
+        }
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Get the metrics that queries and builds report into.
+     *
+     * @return the metrics; {@link NoOpMetrics#INSTANCE} by default.
+     */
+    public IMetrics getMetrics() {
+        return metrics;
+    }
+
+    void setMetrics(IMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("Metrics must not be null");
+        }
+        this.metrics = metrics;
+    }
+}
@@ -25,6 +25,7 @@
 package com.mjango.jmeanstree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -39,6 +40,10 @@ public class Cluster extends ACluster<Number> {
         super(parent, dimensions, k, new EuclideanDistance());
     }
 
+    protected Cluster(VectStore store, int k) {
+        super(null, store, k, new EuclideanDistance());
+    }
+
     @Override
     public Cluster getParent() {
         return (Cluster) parent;
@@ -47,7 +52,7 @@ public class Cluster extends ACluster<Number> {
     @Override
     public List<Cluster> getSubClusters() {
         List<Cluster> children = new ArrayList<>();
-        for (ICluster<Number> child : subClusters) {
+        for (ACluster<Number> child : subClusters) {
             children.add((Cluster) child);
         }
         return children;
@@ -55,25 +60,47 @@ public class Cluster extends ACluster<Number> {
 
     @Override
     public Vect getCentroid() {
-
-        if (centroid == null) {
-            double[] data = new double[dimensions];
-            for (IVect<Number> vect : vects) {
-                for (int i = 0; i < dimensions; i++) {
-                    data[i] += vect.get(i).doubleValue();
+        Vect vect = (Vect) centroid;
+        if (vect == null) {
+            synchronized (this) {
+                if (centroid == null) {
+                    centroid = Vect.wrap(getCentroidData());
                 }
+                vect = (Vect) centroid;
             }
-            int size = size();
-            for (int i = 0; i < dimensions; i++) {
-                data[i] /= size;
-            }
-            centroid = new Vect(data);
         }
-        return (Vect) centroid;
+        return vect;
+    }
+
+    @Override
+    protected double[] toArray(IVect<Number> vect) {
+        if (vect instanceof Vect) {
+            return ((Vect) vect).toArray();
+        }
+        double[] data = new double[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            data[i] = vect.get(i).doubleValue();
+        }
+        return data;
+    }
+
+    @Override
+    protected Vect createVect(int id) {
+        return Vect.wrap(store.toArray(id));
+    }
+
+    @Override
+    protected Vect createMean(double[] means, int offset) {
+        return Vect.wrap(Arrays.copyOfRange(means, offset, offset + dimensions));
     }
 
     @Override
     protected Cluster createSubCluster() {
         return new Cluster(this, dimensions, k);
     }
+
+    @Override
+    protected Cluster createRoot() {
+        return new Cluster(store, k);
+    }
 }
@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+/**
+ * Selects the fastest available {@link com.mjango.jmeanstree.IDistanceKernel}.  When the SIMD
+ * kernel has been compiled in (Java 16+) and the JVM was started with
+ * <code>--add-modules jdk.incubator.vector</code>, it is used; otherwise the scalar kernel is
+ * used.  Setting the system property <code>jmeanstree.simd=false</code> forces the scalar kernel.
+ */
+public final class DistanceKernels {
+    private static final String VECTOR_KERNEL_CLASS =
+            "com.mjango.jmeanstree.simd.VectorDistanceKernel";
+    private static final IDistanceKernel SCALAR = new ScalarDistanceKernel();
+    private static final IDistanceKernel PREFERRED = loadPreferred();
+
+    private DistanceKernels() {
+    }
+
+    /**
+     * Get the fastest kernel available on this JVM.
+     *
+     * @return the preferred kernel.
+     */
+    public static IDistanceKernel get() {
+        return PREFERRED;
+    }
+
+    /**
+     * Get the scalar kernel.
+     *
+     * @return the scalar kernel.
+     */
+    public static IDistanceKernel scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * Check whether the SIMD kernel is in use.
+     *
+     * @return <code>true</code> if {@link #get()} returns the Vector API kernel.
+     */
+    public static boolean isVectorized() {
+        return PREFERRED != SCALAR;
+    }
+
+    private static IDistanceKernel loadPreferred() {
+        if (!Boolean.parseBoolean(System.getProperty("jmeanstree.simd", "true"))) {
+            return SCALAR;
+        }
+        try {
+            IDistanceKernel kernel = (IDistanceKernel) Class.forName(VECTOR_KERNEL_CLASS)
+                                                            .getDeclaredConstructor()
+                                                            .newInstance();
+            // Touch the kernel once, so that a missing incubator module surfaces here rather
+            // than in the middle of a calculation.
+            kernel.squaredDistance(new double[1], 0, new double[1], 0, 1);
+            return kernel;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SCALAR;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+/**
+ * Elkan's accelerated assignment.  Each member keeps an upper bound on the distance to its
+ * assigned mean and a lower bound on the distance to each mean, and the distances between all
+ * pairs of means are calculated once per iteration.  A mean is only compared with a member when
+ * neither its lower bound nor half its distance from the assigned mean rules it out.
+ */
+class ElkanAssignment extends AssignmentEngine {
+    private final int stride;
+    private final double[] upper;
+    private final double[] lower;
+    private final double[] meanDistances;
+    private final double[] halfSeparation;
+    private final double[] shifts;
+
+    ElkanAssignment(ACluster<?> cluster,
+                    int[] memberIds,
+                    int memberCount,
+                    int[] assignments,
+                    int k) {
+        super(cluster, memberIds, memberCount, assignments);
+        stride = k;
+        upper = new double[memberCount];
+        lower = new double[memberCount * k];
+        meanDistances = new double[k * k];
+        halfSeparation = new double[k];
+        shifts = new double[k];
+    }
+
+    @Override
+    protected int prepare() {
+        int distanceCount = 0;
+        for (int i = 0; i < meanCount; i++) {
+            halfSeparation[i] = Double.POSITIVE_INFINITY;
+        }
+        for (int i = 0; i < meanCount; i++) {
+            for (int j = i + 1; j < meanCount; j++) {
+                double distance = distance(means, i * dimensions, means, j * dimensions);
+                meanDistances[i * stride + j] = distance;
+                meanDistances[j * stride + i] = distance;
+                halfSeparation[i] = Math.min(halfSeparation[i], 0.5 * distance);
+                halfSeparation[j] = Math.min(halfSeparation[j], 0.5 * distance);
+                distanceCount++;
+            }
+        }
+        if (initialized) {
+            distanceCount += shifts(shifts);
+        }
+        return distanceCount;
+    }
+
+    @Override
+    protected int assign(int index, double[] data, int offset, Chunk chunk) {
+        int row = index * stride;
+        if (!initialized) {
+            int nearestMean = -1;
+            double minDistance = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < meanCount; i++) {
+                double distance = cluster.squaredDistance(data, offset, means, i * dimensions);
+                lower[row + i] = Math.sqrt(distance);
+                if (nearestMean < 0 || distance < minDistance) {
+                    minDistance = distance;
+                    nearestMean = i;
+                }
+            }
+            chunk.distanceCount += meanCount;
+            upper[index] = Math.sqrt(minDistance);
+            return nearestMean;
+        }
+
+        int assigned = assignments[index];
+        for (int i = 0; i < meanCount; i++) {
+            lower[row + i] = Math.max(0, lower[row + i] - shifts[i]);
+        }
+        double upperBound = upper[index] + shifts[assigned];
+        if (upperBound <= halfSeparation[assigned]) {
+            upper[index] = upperBound;
+            return assigned;
+        }
+
+        boolean tight = false;
+        for (int i = 0; i < meanCount; i++) {
+            if (i == assigned ||
+                upperBound <= lower[row + i] ||
+                upperBound <= 0.5 * meanDistances[assigned * stride + i]) {
+                continue;
+            }
+            if (!tight) {
+                upperBound = distance(data, offset, means, assigned * dimensions);
+                lower[row + assigned] = upperBound;
+                chunk.distanceCount++;
+                tight = true;
+                if (upperBound <= lower[row + i] ||
+                    upperBound <= 0.5 * meanDistances[assigned * stride + i]) {
+                    continue;
+                }
+            }
+            double distance = distance(data, offset, means, i * dimensions);
+            lower[row + i] = distance;
+            chunk.distanceCount++;
+            if (distance < upperBound) {
+                assigned = i;
+                upperBound = distance;
+            }
+        }
+        upper[index] = upperBound;
+        return assigned;
+    }
+
+    @Override
+    public void compact(int[] remap, int newMeanCount) {
+        super.compact(remap, newMeanCount);
+        for (int index = 0; index < memberCount; index++) {
+            int row = index * stride;
+            for (int i = 0; i < remap.length; i++) {
+                if (remap[i] >= 0 && remap[i] != i) {
+                    lower[row + remap[i]] = lower[row + i];
+                }
+            }
+        }
+    }
+}
@@ -26,9 +26,20 @@ package com.mjango.jmeanstree;
 
 /**
  * An implementation of {@link com.mjango.jmeanstree.IDistanceCalculator} for calculating the
- * Euclidean distance between two Number-based IVect instances.
+ * Euclidean distance between two Number-based IVect instances.  The primitive methods return the
+ * squared Euclidean distance.
  */
-public class EuclideanDistance implements IDistanceCalculator<Number> {
+public class EuclideanDistance implements IPrimitiveDistanceCalculator<Number> {
+    private static final int BLOCK_SIZE = 64;
+    private final IDistanceKernel kernel;
+
+    public EuclideanDistance() {
+        this(DistanceKernels.get());
+    }
+
+    public EuclideanDistance(IDistanceKernel kernel) {
+        this.kernel = kernel;
+    }
 
     /**
      * Calculates the Euclidean distance between two Number-based IVects.
@@ -50,4 +61,32 @@ public class EuclideanDistance implements IDistanceCalculator<Number> {
         }
         return Math.sqrt(distance);
     }
+
+    @Override
+    public double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        return kernel.squaredDistance(a, aOffset, b, bOffset, length);
+    }
+
+    @Override
+    public double squaredDistance(double[] a,
+                                  int aOffset,
+                                  double[] b,
+                                  int bOffset,
+                                  int length,
+                                  double threshold) {
+        // Only check the threshold once per block, so that the kernel still gets runs long
+        // enough to vectorize.
+        double distance = 0;
+        for (int start = 0; start < length; start += BLOCK_SIZE) {
+            distance += kernel.squaredDistance(a,
+                                               aOffset + start,
+                                               b,
+                                               bOffset + start,
+                                               Math.min(BLOCK_SIZE, length - start));
+            if (distance > threshold) {
+                return distance;
+            }
+        }
+        return distance;
+    }
 }
@@ -0,0 +1,54 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.Random;
+
+/**
+ * Seeds a cluster with its first K members in insertion order.
+ */
+public class FirstKSeeding implements ISeedingStrategy {
+
+    @Override
+    public int seed(ACluster<?> cluster,
+                    int[] memberIds,
+                    int memberCount,
+                    int k,
+                    Random random,
+                    double[] means) {
+        VectStore store = cluster.getStore();
+        int dimensions = store.getDimensions();
+        double[] data = store.getData();
+        int meanCount = 0;
+        for (int i = 0; i < k && i < memberCount; i++) {
+            System.arraycopy(data,
+                             store.offset(memberIds[i]),
+                             means,
+                             meanCount++ * dimensions,
+                             dimensions);
+        }
+        return meanCount;
+    }
+}
@@ -0,0 +1,972 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Read-only k-means tree held in flat arrays inside a sequence of 1GB {@link ByteBuffer}
+ * segments, so that a tree saved with {@link #write(KMeansTree, Path)} can be memory-mapped by
+ * {@link #load(Path)} and queried in place, without rebuilding it or copying it onto the heap,
+ * however large it is.
+ * <p/>
+ * The file is little-endian, and every section starts on an 8-byte boundary:
+ * <pre>
+ * header      int magic, version, dimensions, nodeCount, vectorCount, format, flags, M
+ * node table  nodeCount x int firstChild, childCount, firstVector, vectorCount
+ * radii       nodeCount x double covering radius
+ * centroids   nodeCount x dimensions doubles
+ * ids         vectorCount x int store id, padded to 8 bytes
+ * quantizer   INT8: dimensions x double minimum, then dimensions x double scale
+ *             PQ: for each of the M subspaces, 256 codewords of its width, as doubles
+ * vectors     vectorCount x dimensions values in the {@link StorageFormat}, or vectorCount x M
+ *             PQ codes, padded to 8 bytes
+ * exact       if flags has {@link #FLAG_EXACT}: vectorCount x dimensions doubles
+ * </pre>
+ * Nodes are numbered breadth first from the root, so each node's children are contiguous.  Only
+ * leaves hold vectors, and each leaf's vectors are contiguous, so a leaf scan reads memory
+ * sequentially.  Distances are squared Euclidean, as computed by
+ * {@link com.mjango.jmeanstree.EuclideanDistance}; results report the vectors' original store ids.
+ * <p/>
+ * Leaf vectors can be stored as float32 or int8 to cut the index's size and the memory bandwidth
+ * of leaf scans.  The exact float64 vectors can be kept as well, in a separate section that only
+ * the final re-ranking of a query's candidates reads, so a mapped index only pages in the
+ * compact vectors and a handful of exact ones per query.  Product quantization goes further,
+ * down to M bytes per vector; see {@link ProductQuantizer}.  With {@link #FLAG_RESIDUAL}, PQ
+ * codes encode each vector's residual from its leaf centroid.
+ * <p/>
+ * Snapshots published by {@link KMeansTree#publish()} and {@link KMeansTree#rebuild()} are never
+ * written out.  They set flag 4 and leave the vectors section empty, reading the float64 vectors
+ * from the tree's {@link VectStore}, whose rows do not change once added.  Each query reads the
+ * store's current array, so a snapshot never holds on to one that the store has outgrown.
+ */
+public class FlatIndex {
+    public static final int MAGIC = 0x4A4D5449;
+    public static final int VERSION = 1;
+    public static final int FLAG_EXACT = 1;
+    public static final int FLAG_RESIDUAL = 2;
+    private static final int FLAG_STORE_VECTORS = 4;
+
+    private static final int HEADER_BYTES = 32;
+    private static final int NODE_INTS = 4;
+    private static final int BLOCK_SIZE = 64;
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+    private final SegmentedBuffer buffer;
+    private final int dimensions;
+    private final int nodeCount;
+    private final int vectorCount;
+    private final StorageFormat format;
+    // Byte offsets of the sections in the buffer.
+    private final long nodes;
+    private final long radii;
+    private final long centroids;
+    private final long ids;
+    private final long vectors;
+    private final long exact;
+    private final double[] mins;
+    private final double[] scales;
+    private final ProductQuantizer quantizer;
+    private final boolean residual;
+    private final VectStore store;
+    private final IDistanceKernel kernel;
+
+    FlatIndex(SegmentedBuffer buffer) throws IOException {
+        this(buffer, null);
+    }
+
+    /**
+     * Read an index.
+     *
+     * @param buffer       index bytes.
+     * @param store  the {@link VectStore} holding the vectors of an index that does not hold
+     *               them itself, or <code>null</code>.
+     * @throws IOException if the bytes are not a valid index.
+     */
+    FlatIndex(SegmentedBuffer buffer, VectStore store) throws IOException {
+        this.buffer = buffer;
+        this.kernel = DistanceKernels.get();
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a JMeansTree index");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported index version " + version);
+        }
+        dimensions = buffer.getInt(8);
+        nodeCount = buffer.getInt(12);
+        vectorCount = buffer.getInt(16);
+        int ordinal = buffer.getInt(20);
+        if (ordinal < 0 || ordinal >= StorageFormat.values().length) {
+            throw new IOException("Unknown storage format " + ordinal);
+        }
+        format = StorageFormat.values()[ordinal];
+        int flags = buffer.getInt(24);
+        int m = buffer.getInt(28);
+        boolean hasExact = (flags & FLAG_EXACT) != 0;
+        residual = (flags & FLAG_RESIDUAL) != 0;
+        boolean inStore = (flags & FLAG_STORE_VECTORS) != 0;
+        if (inStore && store == null) {
+            throw new IOException("Index vectors are held in a VectStore, not in the index");
+        }
+        this.store = inStore ? store : null;
+        if (dimensions <= 0 || nodeCount <= 0 || vectorCount < 0 ||
+            (format == StorageFormat.PQ && (m <= 0 || m > dimensions)) ||
+            (inStore && format != StorageFormat.FLOAT64) ||
+            byteSize(dimensions, nodeCount, vectorCount, format, m, hasExact, inStore) !=
+            buffer.capacity()) {
+            throw new IOException("Corrupt index header");
+        }
+
+        long offset = HEADER_BYTES;
+        nodes = offset;
+        offset += nodeCount * NODE_INTS * 4L;
+        radii = offset;
+        offset += nodeCount * 8L;
+        centroids = offset;
+        offset += nodeCount * (long) dimensions * 8L;
+        ids = offset;
+        offset += align(vectorCount * 4L);
+        if (format == StorageFormat.INT8) {
+            mins = new double[dimensions];
+            scales = new double[dimensions];
+            buffer.getDoubles(offset, mins, 0, dimensions);
+            offset += dimensions * 8L;
+            buffer.getDoubles(offset, scales, 0, dimensions);
+            offset += dimensions * 8L;
+        } else {
+            mins = null;
+            scales = null;
+        }
+        if (format == StorageFormat.PQ) {
+            double[] codebooks = new double[ProductQuantizer.CODEWORDS * dimensions];
+            buffer.getDoubles(offset, codebooks, 0, codebooks.length);
+            offset += codebooks.length * 8L;
+            quantizer = new ProductQuantizer(dimensions, m, codebooks);
+        } else {
+            quantizer = null;
+        }
+        vectors = offset;
+        offset += inStore ? 0 : align(vectorBytes(vectorCount, dimensions, format, m));
+        exact = hasExact ? offset : -1;
+    }
+
+    /**
+     * Memory-map an index file read-only.  The mapping stays valid after the channel is closed,
+     * and JVMs mapping the same file share its pages.
+     *
+     * @param path index file.
+     * @return the mapped index.
+     * @throws IOException if the file cannot be read or is not a valid index.
+     */
+    public static FlatIndex load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new FlatIndex(SegmentedBuffer.map(channel));
+        }
+    }
+
+    /**
+     * Save a tree as an index file with float64 leaf vectors.  The tree must not be modified
+     * while it is written.
+     *
+     * @param tree tree to save; its root must extend {@link com.mjango.jmeanstree.ACluster}.
+     * @param path index file, replaced if it exists.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(KMeansTree<?> tree, Path path) throws IOException {
+        write(tree, path, StorageFormat.FLOAT64, false);
+    }
+
+    /**
+     * Save a tree as an index file.  The tree must not be modified while it is written.
+     *
+     * @param tree   tree to save; its root must extend {@link com.mjango.jmeanstree.ACluster}.
+     * @param path   index file, replaced if it exists.
+     * @param format precision of the leaf vectors scanned by queries.
+     * @param exact  whether to also store exact float64 vectors for re-ranking.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(KMeansTree<?> tree, Path path, StorageFormat format, boolean exact)
+            throws IOException {
+        if (format == StorageFormat.PQ) {
+            throw new IllegalArgumentException("Use write(tree, path, m, residual, exact) for PQ");
+        }
+        write(tree, path, format, 0, false, exact);
+    }
+
+    /**
+     * Save a tree as an index file with product-quantized leaf vectors.  The codebooks are
+     * trained with k-means on a sample of the leaf vectors, using the tree's build options and
+     * seed.  Only the file is quantized; the tree keeps its float64 vectors.  The tree must not
+     * be modified while it is written.
+     *
+     * @param tree     tree to save; its root must extend {@link com.mjango.jmeanstree.ACluster}.
+     * @param path     index file, replaced if it exists.
+     * @param m        number of subspaces, each encoded in one byte.
+     * @param residual whether to encode each vector's residual from its leaf centroid.
+     * @param exact    whether to also store exact float64 vectors for re-ranking.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(KMeansTree<?> tree, Path path, int m, boolean residual, boolean exact)
+            throws IOException {
+        write(tree, path, StorageFormat.PQ, m, residual, exact);
+    }
+
+    private static void write(KMeansTree<?> tree,
+                              Path path,
+                              StorageFormat format,
+                              int m,
+                              boolean residual,
+                              boolean exact) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE)) {
+            ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            ACluster<?> root = root(tree);
+            List<List<? extends ACluster<?>>> children = new ArrayList<>();
+            List<ACluster<?>> order = breadthFirst(root, children);
+            int[][] members = members(order, children);
+            ProductQuantizer quantizer = format == StorageFormat.PQ ?
+                                         train(root, order, members, m, residual) :
+                                         null;
+            write(root,
+                  order,
+                  children,
+                  members,
+                  format,
+                  quantizer,
+                  residual,
+                  exact,
+                  false,
+                  channel,
+                  out);
+            flush(channel, out);
+        }
+    }
+
+    /**
+     * Copy a tree into an index on the heap.  Only the tree's structure and member ids are
+     * copied; the index reads the vectors from the tree's {@link VectStore}.
+     *
+     * @param tree tree to copy; its root must extend {@link com.mjango.jmeanstree.ACluster}.
+     * @return the index.
+     */
+    static FlatIndex copyOf(KMeansTree<?> tree) {
+        ACluster<?> root = root(tree);
+        List<List<? extends ACluster<?>>> children = new ArrayList<>();
+        List<ACluster<?>> order = breadthFirst(root, children);
+        int[][] members = members(order, children);
+        int vectorCount = 0;
+        for (int[] leaf : members) {
+            vectorCount += leaf != null ? leaf.length : 0;
+        }
+        SegmentedBuffer.Sink sink = new SegmentedBuffer.Sink(byteSize(root.getDimensions(),
+                                                                      order.size(),
+                                                                      vectorCount,
+                                                                      StorageFormat.FLOAT64,
+                                                                      0,
+                                                                      false,
+                                                                      true));
+        ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            write(root,
+                  order,
+                  children,
+                  members,
+                  StorageFormat.FLOAT64,
+                  null,
+                  false,
+                  false,
+                  true,
+                  sink,
+                  out);
+            flush(sink, out);
+            return new FlatIndex(sink.toBuffer(), root.getStore());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getVectorCount() {
+        return vectorCount;
+    }
+
+    public StorageFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Check whether this index holds exact float64 vectors for re-ranking.
+     *
+     * @return <code>true</code> if queries can re-rank their candidates exactly.
+     */
+    public boolean hasExactVectors() {
+        return exact >= 0;
+    }
+
+    /**
+     * Best-bin-first search for a query's nearest neighbors, as in
+     * {@link ICluster#getNearestNeighbors(IVect, int, int, NeighborList, int[])}.
+     *
+     * @param query        query vector values.
+     * @param k            number of neighbors.
+     * @param maxChecks    comparison budget.
+     * @param results      list to reuse, or <code>null</code> to allocate one.
+     * @param compareCount a 1-element int array to track number of comparisons.
+     * @return the nearest neighbors by store id, sorted nearest first.
+     */
+    public NeighborList getNearestNeighbors(double[] query,
+                                            int k,
+                                            int maxChecks,
+                                            NeighborList results,
+                                            int[] compareCount) {
+        return getNearestNeighbors(query, k, 0, maxChecks, results, compareCount);
+    }
+
+    /**
+     * Best-bin-first search for a query's nearest neighbors, re-ranking the best
+     * <code>rerank</code> candidates found in the compact leaf vectors by their exact distance.
+     * Without exact vectors, or with <code>rerank</code> of 0, distances are those of the stored
+     * format.
+     *
+     * @param query        query vector values.
+     * @param k            number of neighbors.
+     * @param rerank       number of candidates to re-rank; raised to K if smaller.
+     * @param maxChecks    comparison budget.
+     * @param results      list to reuse, or <code>null</code> to allocate one.
+     * @param compareCount a 1-element int array to track number of comparisons.
+     * @return the nearest neighbors by store id, sorted nearest first.
+     */
+    public NeighborList getNearestNeighbors(double[] query,
+                                            int k,
+                                            int rerank,
+                                            int maxChecks,
+                                            NeighborList results,
+                                            int[] compareCount) {
+        if (query.length != dimensions) {
+            throw new IllegalArgumentException("Query must have " + dimensions + " dimensions");
+        }
+        if (results == null) {
+            results = new NeighborList(k);
+        } else {
+            results.reset(k);
+        }
+        boolean reranking = rerank > 0 && exact >= 0;
+        NeighborList candidates = reranking ? new NeighborList(Math.max(k, rerank)) : results;
+        Scan scan = new Scan(query);
+        PriorityQueue<Branch> branches = new PriorityQueue<>();
+        int start = compareCount[0];
+        int node = 0;
+        while (node >= 0) {
+            node = descend(scan, node, branches, compareCount);
+            scan.leaf(node, candidates, !reranking, compareCount);
+
+            Branch branch = compareCount[0] - start < maxChecks || !candidates.isFull() ?
+                            branches.poll() :
+                            null;
+            node = branch != null ? branch.node : -1;
+        }
+        if (reranking) {
+            // Candidates hold vector positions; only their exact vectors are read.
+            for (int i = 0; i < candidates.size(); i++) {
+                int position = candidates.getId(i);
+                double threshold = results.getThreshold();
+                double distance = scan.squaredDistance(exact + position * (long) dimensions * 8L,
+                                                       threshold);
+                compareCount[0]++;
+                if (distance < threshold) {
+                    results.offer(id(position), distance);
+                }
+            }
+        }
+        results.finish();
+        return results;
+    }
+
+    /**
+     * Report every vector within a radius of a query, skipping nodes whose covering radius
+     * proves they hold none.
+     *
+     * @param query        query vector values.
+     * @param radius       search radius.
+     * @param visitor      receives each vector's store id and distance.
+     * @param compareCount a 1-element int array to track number of comparisons.
+     */
+    public void rangeSearch(double[] query,
+                            double radius,
+                            INeighborVisitor visitor,
+                            int[] compareCount) {
+        if (query.length != dimensions) {
+            throw new IllegalArgumentException("Query must have " + dimensions + " dimensions");
+        }
+        Scan scan = new Scan(query);
+        int[] stack = new int[nodeCount];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            int childCount = node(node, 1);
+            if (childCount == 0) {
+                int firstVector = node(node, 2);
+                int count = node(node, 3);
+                double threshold = radius * radius;
+                scan.prepare(node);
+                for (int i = firstVector; i < firstVector + count; i++) {
+                    double distance = scan.distance(i, threshold);
+                    compareCount[0]++;
+                    if (distance <= threshold && !visitor.visit(id(i), Math.sqrt(distance))) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            int firstChild = node(node, 0);
+            for (int child = firstChild; child < firstChild + childCount; child++) {
+                double distance = Math.sqrt(scan.squaredDistance(centroid(child),
+                                                                 Double.POSITIVE_INFINITY));
+                compareCount[0]++;
+                if (distance - buffer.getDouble(radii + child * 8L) <= radius) {
+                    stack[top++] = child;
+                }
+            }
+        }
+    }
+
+    private int descend(Scan scan,
+                        int node,
+                        PriorityQueue<Branch> branches,
+                        int[] compareCount) {
+        while (node(node, 1) > 0) {
+            int firstChild = node(node, 0);
+            int childCount = node(node, 1);
+            int nearest = -1;
+            double minDistance = Double.POSITIVE_INFINITY;
+            for (int child = firstChild; child < firstChild + childCount; child++) {
+                double distance = scan.squaredDistance(centroid(child), Double.POSITIVE_INFINITY);
+                compareCount[0]++;
+                if (nearest < 0 || distance < minDistance) {
+                    if (nearest >= 0) {
+                        branches.add(new Branch(nearest, minDistance));
+                    }
+                    minDistance = distance;
+                    nearest = child;
+                } else {
+                    branches.add(new Branch(child, distance));
+                }
+            }
+            node = nearest;
+        }
+        return node;
+    }
+
+    /**
+     * Get a field of the node table: 0 first child, 1 child count, 2 first vector, 3 vector count.
+     */
+    private int node(int node, int field) {
+        return buffer.getInt(nodes + (node * (long) NODE_INTS + field) * 4L);
+    }
+
+    private int id(int position) {
+        return buffer.getInt(ids + position * 4L);
+    }
+
+    private long centroid(int node) {
+        return centroids + node * (long) dimensions * 8L;
+    }
+
+    private static ACluster<?> root(KMeansTree<?> tree) {
+        if (!(tree.getRoot() instanceof ACluster)) {
+            throw new IllegalArgumentException("Tree root must extend ACluster");
+        }
+        return (ACluster<?>) tree.getRoot();
+    }
+
+    private static long byteSize(int dimensions,
+                                 int nodeCount,
+                                 int vectorCount,
+                                 StorageFormat format,
+                                 int m,
+                                 boolean exact,
+                                 boolean inStore) {
+        long quantizerBytes = 0;
+        if (format == StorageFormat.INT8) {
+            quantizerBytes = dimensions * 16L;
+        } else if (format == StorageFormat.PQ) {
+            quantizerBytes = ProductQuantizer.CODEWORDS * dimensions * 8L;
+        }
+        return HEADER_BYTES +
+               nodeCount * (NODE_INTS * 4L + 8L + dimensions * 8L) +
+               align(vectorCount * 4L) +
+               quantizerBytes +
+               (inStore ? 0 : align(vectorBytes(vectorCount, dimensions, format, m))) +
+               (exact ? vectorCount * (long) dimensions * 8L : 0);
+    }
+
+    private static long vectorBytes(int vectorCount, int dimensions, StorageFormat format, int m) {
+        return format == StorageFormat.PQ ?
+               (long) vectorCount * m :
+               (long) vectorCount * dimensions * format.getBytes();
+    }
+
+    /**
+     * Train a product quantizer on the leaf vectors, or their residuals from their leaves'
+     * centroids.
+     */
+    private static ProductQuantizer train(ACluster<?> root,
+                                          List<ACluster<?>> order,
+                                          int[][] members,
+                                          int m,
+                                          boolean residual) {
+        int vectorCount = 0;
+        for (int[] leaf : members) {
+            vectorCount += leaf != null ? leaf.length : 0;
+        }
+        int[] ids = new int[vectorCount];
+        double[][] centroids = residual ? new double[vectorCount][] : null;
+        int next = 0;
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] != null) {
+                for (int id : members[i]) {
+                    if (residual) {
+                        centroids[next] = order.get(i).getCentroidData();
+                    }
+                    ids[next++] = id;
+                }
+            }
+        }
+        return ProductQuantizer.train(root.getStore(), ids, centroids, m, root.getOptions());
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Number the nodes breadth first, reading each node's sub-cluster list once into
+     * <code>children</code>, so that the node table and the leaf members agree even if the tree
+     * changes meanwhile.
+     */
+    private static List<ACluster<?>> breadthFirst(ACluster<?> root,
+                                                  List<List<? extends ACluster<?>>> children) {
+        List<ACluster<?>> order = new ArrayList<>();
+        order.add(root);
+        for (int i = 0; i < order.size(); i++) {
+            List<? extends ACluster<?>> nodeChildren = order.get(i).subClusters;
+            children.add(nodeChildren);
+            order.addAll(nodeChildren);
+        }
+        return order;
+    }
+
+    /**
+     * Snapshot the members of each leaf, leaving out removed vectors.
+     */
+    private static int[][] members(List<ACluster<?>> order,
+                                   List<List<? extends ACluster<?>>> children) {
+        int[][] members = new int[order.size()][];
+        for (int i = 0; i < order.size(); i++) {
+            ACluster<?> node = order.get(i);
+            if (children.get(i).isEmpty()) {
+                long[] tombstones = node.getStore().getTombstones();
+                int[] leaf;
+                int count = 0;
+                synchronized (node) {
+                    leaf = new int[node.count];
+                    for (int j = 0; j < node.count; j++) {
+                        if (!VectStore.isDeleted(tombstones, node.ids[j])) {
+                            leaf[count++] = node.ids[j];
+                        }
+                    }
+                }
+                members[i] = Arrays.copyOf(leaf, count);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Write a tree section by section, flushing the buffer to the channel whenever it fills.
+     * With <code>inStore</code>, the vectors section is left empty.
+     */
+    private static void write(ACluster<?> root,
+                              List<ACluster<?>> order,
+                              List<List<? extends ACluster<?>>> children,
+                              int[][] members,
+                              StorageFormat format,
+                              ProductQuantizer quantizer,
+                              boolean residual,
+                              boolean exact,
+                              boolean inStore,
+                              WritableByteChannel channel,
+                              ByteBuffer out) throws IOException {
+        int dimensions = root.getDimensions();
+        int vectorCount = 0;
+        for (int[] leaf : members) {
+            vectorCount += leaf != null ? leaf.length : 0;
+        }
+
+        ensure(channel, out, HEADER_BYTES);
+        out.putInt(MAGIC).putInt(VERSION).putInt(dimensions)
+           .putInt(order.size()).putInt(vectorCount).putInt(format.ordinal())
+           .putInt((exact ? FLAG_EXACT : 0) |
+                   (residual ? FLAG_RESIDUAL : 0) |
+                   (inStore ? FLAG_STORE_VECTORS : 0))
+           .putInt(quantizer != null ? quantizer.getM() : 0);
+
+        int nextChild = 1;
+        int nextVector = 0;
+        for (int i = 0; i < order.size(); i++) {
+            int childCount = children.get(i).size();
+            int count = members[i] != null ? members[i].length : 0;
+            ensure(channel, out, NODE_INTS * 4);
+            out.putInt(childCount > 0 ? nextChild : 0).putInt(childCount)
+               .putInt(nextVector).putInt(count);
+            nextChild += childCount;
+            nextVector += count;
+        }
+        for (ACluster<?> node : order) {
+            ensure(channel, out, 8);
+            out.putDouble(node.getRadius());
+        }
+        for (ACluster<?> node : order) {
+            double[] centroid = node.getCentroidData();
+            for (int j = 0; j < dimensions; j++) {
+                ensure(channel, out, 8);
+                out.putDouble(centroid[j]);
+            }
+        }
+        for (int[] leaf : members) {
+            if (leaf != null) {
+                for (int id : leaf) {
+                    ensure(channel, out, 4);
+                    out.putInt(id);
+                }
+            }
+        }
+        if ((vectorCount & 1) != 0) {
+            ensure(channel, out, 4);
+            out.putInt(0);
+        }
+        VectStore store = root.getStore();
+        double[] data = store.getData();
+        double[] mins = null;
+        double[] scales = null;
+        if (format == StorageFormat.INT8) {
+            mins = new double[dimensions];
+            scales = new double[dimensions];
+            double[] maxs = new double[dimensions];
+            Arrays.fill(mins, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+            for (int[] leaf : members) {
+                if (leaf != null) {
+                    for (int id : leaf) {
+                        int offset = store.offset(id);
+                        for (int j = 0; j < dimensions; j++) {
+                            mins[j] = Math.min(mins[j], data[offset + j]);
+                            maxs[j] = Math.max(maxs[j], data[offset + j]);
+                        }
+                    }
+                }
+            }
+            for (int j = 0; j < dimensions; j++) {
+                if (vectorCount == 0) {
+                    mins[j] = 0;
+                }
+                scales[j] = vectorCount > 0 ? (maxs[j] - mins[j]) / 255 : 0;
+            }
+            for (double min : mins) {
+                ensure(channel, out, 8);
+                out.putDouble(min);
+            }
+            for (double scale : scales) {
+                ensure(channel, out, 8);
+                out.putDouble(scale);
+            }
+        }
+        if (quantizer != null) {
+            for (double value : quantizer.getCodebooks()) {
+                ensure(channel, out, 8);
+                out.putDouble(value);
+            }
+        }
+        long written = 0;
+        byte[] pqCodes = quantizer != null ? new byte[quantizer.getM()] : null;
+        for (int i = 0; i < members.length && !inStore; i++) {
+            int[] leaf = members[i];
+            if (leaf != null && quantizer != null) {
+                double[] centroid = residual ? order.get(i).getCentroidData() : null;
+                for (int id : leaf) {
+                    quantizer.encode(data, store.offset(id), centroid, pqCodes);
+                    ensure(channel, out, pqCodes.length);
+                    out.put(pqCodes);
+                    written += pqCodes.length;
+                }
+            } else if (leaf != null) {
+                for (int id : leaf) {
+                    int offset = store.offset(id);
+                    for (int j = 0; j < dimensions; j++) {
+                        double value = data[offset + j];
+                        ensure(channel, out, 8);
+                        if (format == StorageFormat.FLOAT64) {
+                            out.putDouble(value);
+                        } else if (format == StorageFormat.FLOAT32) {
+                            out.putFloat((float) value);
+                        } else {
+                            long code = scales[j] > 0 ?
+                                        Math.round((value - mins[j]) / scales[j]) :
+                                        0;
+                            out.put((byte) Math.max(0, Math.min(255, code)));
+                        }
+                    }
+                    written += (long) dimensions * format.getBytes();
+                }
+            }
+        }
+        for (long i = written; i < align(written); i++) {
+            ensure(channel, out, 1);
+            out.put((byte) 0);
+        }
+        if (exact) {
+            for (int[] leaf : members) {
+                if (leaf != null) {
+                    for (int id : leaf) {
+                        int offset = store.offset(id);
+                        for (int j = 0; j < dimensions; j++) {
+                            ensure(channel, out, 8);
+                            out.putDouble(data[offset + j]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void ensure(WritableByteChannel channel, ByteBuffer out, int bytes)
+            throws IOException {
+        if (out.remaining() < bytes) {
+            flush(channel, out);
+        }
+    }
+
+    private static void flush(WritableByteChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Per-query leaf scanning.  Stored values are copied a block at a time into a row of
+     * doubles, and each block's distance is computed by the {@link IDistanceKernel}, so the
+     * threshold is checked once per block.  For int8 vectors the query is shifted by the minima
+     * once, so that each value costs one multiply: with <code>value = min + scale * code</code>,
+     * <code>(q - value)^2 = ((q - min) - scale * code)^2</code>.  For PQ codes the lookup table
+     * is built once per query, or once per leaf for residual codes.
+     */
+    private class Scan {
+        private final double[] query;
+        private final double[] shiftedQuery;
+        private final double[] row;
+        private final double[] table;
+        private final double[] centroid;
+        private final double[] storeVectors;
+        private int tableNode;
+
+        Scan(double[] query) {
+            this.query = query;
+            // Rows never move once added, so the store's current array holds every member.
+            this.storeVectors = store != null ? store.getData() : null;
+            this.row = new double[Math.min(BLOCK_SIZE, dimensions)];
+            if (quantizer != null) {
+                table = new double[quantizer.getM() * ProductQuantizer.CODEWORDS];
+                centroid = residual ? new double[dimensions] : null;
+            } else {
+                table = null;
+                centroid = null;
+            }
+            tableNode = -1;
+            if (format == StorageFormat.INT8) {
+                shiftedQuery = new double[dimensions];
+                for (int j = 0; j < dimensions; j++) {
+                    shiftedQuery[j] = query[j] - mins[j];
+                }
+            } else {
+                shiftedQuery = null;
+            }
+        }
+
+        /**
+         * Compare the query with every vector of a leaf.
+         *
+         * @param node         leaf node.
+         * @param results      receives vectors nearer than its threshold.
+         * @param storeIds     whether to report store ids, or vector positions in the index.
+         * @param compareCount a 1-element int array to track number of comparisons.
+         */
+        void leaf(int node, NeighborList results, boolean storeIds, int[] compareCount) {
+            prepare(node);
+            int firstVector = node(node, 2);
+            int count = node(node, 3);
+            for (int i = firstVector; i < firstVector + count; i++) {
+                double threshold = results.getThreshold();
+                double distance = distance(i, threshold);
+                compareCount[0]++;
+                if (distance < threshold) {
+                    results.offer(storeIds ? id(i) : i, distance);
+                }
+            }
+        }
+
+        /**
+         * Build the PQ lookup table for a leaf, if it does not have one yet.
+         *
+         * @param node leaf node.
+         */
+        void prepare(int node) {
+            if (table == null || tableNode >= 0 && (!residual || tableNode == node)) {
+                return;
+            }
+            if (residual) {
+                buffer.getDoubles(centroid(node), centroid, 0, dimensions);
+            }
+            quantizer.table(query, centroid, table);
+            tableNode = node;
+        }
+
+        /**
+         * Squared distance from the query to a stored vector, abandoned early once it reaches
+         * the threshold.  PQ distances need the vector's leaf to have been prepared.
+         */
+        double distance(int position, double threshold) {
+            if (format == StorageFormat.PQ) {
+                int m = quantizer.getM();
+                long offset = vectors + position * (long) m;
+                double sum = 0;
+                for (int j = 0; j < m; j++) {
+                    sum += table[j * ProductQuantizer.CODEWORDS + (buffer.get(offset + j) & 0xFF)];
+                }
+                return sum;
+            }
+            if (storeVectors != null) {
+                return squaredDistance(storeVectors, id(position) * dimensions, threshold);
+            }
+            long offset = vectors + position * (long) dimensions * format.getBytes();
+            double[] target = format == StorageFormat.INT8 ? shiftedQuery : query;
+            double sum = 0;
+            for (int start = 0; start < dimensions; start += BLOCK_SIZE) {
+                int length = Math.min(BLOCK_SIZE, dimensions - start);
+                if (format == StorageFormat.FLOAT64) {
+                    buffer.getDoubles(offset + start * 8L, row, 0, length);
+                } else if (format == StorageFormat.FLOAT32) {
+                    long blockOffset = offset + start * 4L;
+                    for (int i = 0; i < length; i++) {
+                        row[i] = buffer.getFloat(blockOffset + i * 4L);
+                    }
+                } else {
+                    long blockOffset = offset + start;
+                    for (int i = 0; i < length; i++) {
+                        row[i] = (buffer.get(blockOffset + i) & 0xFF) * scales[start + i];
+                    }
+                }
+                sum += kernel.squaredDistance(target, start, row, 0, length);
+                if (sum >= threshold) {
+                    return sum;
+                }
+            }
+            return sum;
+        }
+
+        /**
+         * Squared distance from the query to a vector held in an array, abandoned early once it
+         * reaches the threshold.
+         */
+        double squaredDistance(double[] values, int offset, double threshold) {
+            double sum = 0;
+            for (int start = 0; start < dimensions; start += BLOCK_SIZE) {
+                int length = Math.min(BLOCK_SIZE, dimensions - start);
+                sum += kernel.squaredDistance(query, start, values, offset + start, length);
+                if (sum >= threshold) {
+                    return sum;
+                }
+            }
+            return sum;
+        }
+
+        /**
+         * Squared distance from the query to the doubles starting at a byte offset, such as a
+         * centroid or an exact vector, abandoned early once it reaches the threshold.
+         */
+        double squaredDistance(long offset, double threshold) {
+            double sum = 0;
+            for (int start = 0; start < dimensions; start += BLOCK_SIZE) {
+                int length = Math.min(BLOCK_SIZE, dimensions - start);
+                buffer.getDoubles(offset + start * 8L, row, 0, length);
+                sum += kernel.squaredDistance(query, start, row, 0, length);
+                if (sum >= threshold) {
+                    return sum;
+                }
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * An unexplored node in a best-bin-first search.
+     */
+    private static class Branch implements Comparable<Branch> {
+        final int node;
+        final double distance;
+
+        Branch(int node, double distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Branch other) {
+            return Double.compare(distance, other.distance);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events emitted by {@link HistogramMetrics}.  The library targets Java 8,
+ * whose early runtimes have no <code>jdk.jfr</code>, so these events live apart from
+ * {@link HistogramMetrics} and are only loaded once it has found Flight Recorder.
+ */
+final class FlightRecorderEvents {
+
+    private FlightRecorderEvents() {
+    }
+
+    static void query(long nanos, int distanceCount, int nodeCount) {
+        QueryEvent event = new QueryEvent();
+        if (event.shouldCommit()) {
+            event.latency = nanos;
+            event.distanceCount = distanceCount;
+            event.nodeCount = nodeCount;
+            event.commit();
+        }
+    }
+
+    static void build(int level,
+                      int size,
+                      int iterations,
+                      long nanos,
+                      int subClusterCount,
+                      long skew) {
+        BuildEvent event = new BuildEvent();
+        if (event.shouldCommit()) {
+            event.level = level;
+            event.size = size;
+            event.iterations = iterations;
+            event.buildTime = nanos;
+            event.subClusterCount = subClusterCount;
+            event.skew = skew;
+            event.commit();
+        }
+    }
+
+    @Name("com.mjango.jmeanstree.Query")
+    @Label("K-Means Tree Query")
+    @Category("JMeansTree")
+    @StackTrace(false)
+    static class QueryEvent extends Event {
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+
+        @Label("Distance Calculations")
+        int distanceCount;
+
+        @Label("Nodes Visited")
+        int nodeCount;
+    }
+
+    @Name("com.mjango.jmeanstree.Build")
+    @Label("K-Means Cluster Calculation")
+    @Category("JMeansTree")
+    @StackTrace(false)
+    static class BuildEvent extends Event {
+        @Label("Level")
+        int level;
+
+        @Label("Size")
+        int size;
+
+        @Label("Iterations")
+        int iterations;
+
+        @Label("Build Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long buildTime;
+
+        @Label("Sub-Clusters")
+        int subClusterCount;
+
+        @Label("Size Skew")
+        @Description("Largest sub-cluster size relative to the mean, in thousandths")
+        long skew;
+    }
+}
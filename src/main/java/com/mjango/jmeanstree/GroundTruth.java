@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Exact k-nearest-neighbor ground truth by brute force, for measuring the recall of approximate
+ * searches.  Each query is compared with every live vector of the base store; queries are
+ * scanned in parallel as fork-join tasks.
+ */
+public final class GroundTruth {
+    private static final int GRAIN = 16;
+
+    private GroundTruth() {
+    }
+
+    /**
+     * Compute the exact K nearest neighbors of every query, on the common pool.
+     *
+     * @param base    vectors to search; tombstoned vectors are skipped.
+     * @param queries queries, with the same dimensions as the base store.
+     * @param k       number of neighbors per query.
+     * @return one array of base store ids per query, nearest first, in the same shape as
+     * {@link VectorFiles#loadIvecs(java.nio.file.Path)}.  Rows are shorter than K if the base
+     * store holds fewer than K live vectors.
+     */
+    public static int[][] compute(VectStore base, VectStore queries, int k) {
+        return compute(base, queries, k, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compute the exact K nearest neighbors of every query.
+     *
+     * @param base    vectors to search; tombstoned vectors are skipped.
+     * @param queries queries, with the same dimensions as the base store.
+     * @param k       number of neighbors per query.
+     * @param pool    pool to scan the queries on.
+     * @return one array of base store ids per query, nearest first.
+     */
+    public static int[][] compute(VectStore base, VectStore queries, int k, ForkJoinPool pool) {
+        if (base.getDimensions() != queries.getDimensions()) {
+            throw new IllegalArgumentException("Queries must have " + base.getDimensions() +
+                                               " dimensions");
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("K must be positive");
+        }
+        int[][] truth = new int[queries.size()][];
+        pool.invoke(new ScanTask(base, queries, k, truth, 0, truth.length));
+        return truth;
+    }
+
+    private static class ScanTask extends RecursiveAction {
+        private final VectStore base;
+        private final VectStore queries;
+        private final int k;
+        private final int[][] truth;
+        private final int from;
+        private final int to;
+
+        ScanTask(VectStore base, VectStore queries, int k, int[][] truth, int from, int to) {
+            this.base = base;
+            this.queries = queries;
+            this.k = k;
+            this.truth = truth;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > GRAIN) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ScanTask(base, queries, k, truth, from, middle),
+                          new ScanTask(base, queries, k, truth, middle, to));
+                return;
+            }
+            IDistanceKernel kernel = DistanceKernels.get();
+            int dimensions = base.getDimensions();
+            int baseSize = base.size();
+            double[] data = base.getData();
+            double[] queryData = queries.getData();
+            long[] tombstones = base.getTombstones();
+            NeighborList results = new NeighborList(k);
+            for (int q = from; q < to; q++) {
+                int queryOffset = queries.offset(q);
+                results.reset(k);
+                for (int id = 0; id < baseSize; id++) {
+                    if (VectStore.isDeleted(tombstones, id)) {
+                        continue;
+                    }
+                    double distance = kernel.squaredDistance(queryData,
+                                                             queryOffset,
+                                                             data,
+                                                             base.offset(id),
+                                                             dimensions);
+                    if (distance < results.getThreshold()) {
+                        results.offer(id, distance);
+                    }
+                }
+                results.finish();
+                int[] ids = new int[results.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = results.getId(i);
+                }
+                truth[q] = ids;
+            }
+        }
+    }
+}
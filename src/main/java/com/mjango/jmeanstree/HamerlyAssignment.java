@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+/**
+ * Hamerly's accelerated assignment.  Each member keeps an upper bound on the distance to its
+ * assigned mean and a single lower bound on the distance to every other mean.  When the upper
+ * bound is below both the lower bound and half the distance from the assigned mean to its nearest
+ * other mean, the member cannot have changed means and no distances are calculated for it.
+ */
+class HamerlyAssignment extends AssignmentEngine {
+    private final double[] upper;
+    private final double[] lower;
+    private double[] halfSeparation;
+    private double[] shifts;
+    private int maxShiftMean;
+    private double maxShift;
+    private double secondMaxShift;
+
+    HamerlyAssignment(ACluster<?> cluster, int[] memberIds, int memberCount, int[] assignments) {
+        super(cluster, memberIds, memberCount, assignments);
+        upper = new double[memberCount];
+        lower = new double[memberCount];
+    }
+
+    @Override
+    protected int prepare() {
+        if (halfSeparation == null || halfSeparation.length < meanCount) {
+            halfSeparation = new double[meanCount];
+            shifts = new double[meanCount];
+        }
+        int distanceCount = 0;
+        for (int i = 0; i < meanCount; i++) {
+            halfSeparation[i] = Double.POSITIVE_INFINITY;
+        }
+        for (int i = 0; i < meanCount; i++) {
+            for (int j = i + 1; j < meanCount; j++) {
+                double half = 0.5 * distance(means, i * dimensions, means, j * dimensions);
+                halfSeparation[i] = Math.min(halfSeparation[i], half);
+                halfSeparation[j] = Math.min(halfSeparation[j], half);
+                distanceCount++;
+            }
+        }
+
+        if (initialized) {
+            distanceCount += shifts(shifts);
+            maxShiftMean = -1;
+            maxShift = 0;
+            secondMaxShift = 0;
+            for (int i = 0; i < meanCount; i++) {
+                if (maxShiftMean < 0 || shifts[i] > maxShift) {
+                    secondMaxShift = maxShift;
+                    maxShift = shifts[i];
+                    maxShiftMean = i;
+                } else if (shifts[i] > secondMaxShift) {
+                    secondMaxShift = shifts[i];
+                }
+            }
+        }
+        return distanceCount;
+    }
+
+    @Override
+    protected int assign(int index, double[] data, int offset, Chunk chunk) {
+        if (!initialized) {
+            return assignAll(index, data, offset, chunk);
+        }
+
+        int assigned = assignments[index];
+        upper[index] += shifts[assigned];
+        lower[index] -= assigned == maxShiftMean ? secondMaxShift : maxShift;
+
+        double bound = Math.max(halfSeparation[assigned], lower[index]);
+        if (upper[index] <= bound) {
+            return assigned;
+        }
+        upper[index] = distance(data, offset, means, assigned * dimensions);
+        chunk.distanceCount++;
+        if (upper[index] <= bound) {
+            return assigned;
+        }
+        return assignAll(index, data, offset, chunk);
+    }
+
+    /**
+     * Compare a member with every mean, and reset its bounds.
+     */
+    private int assignAll(int index, double[] data, int offset, Chunk chunk) {
+        int nearestMean = -1;
+        double minDistance = Double.POSITIVE_INFINITY;
+        double secondDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < meanCount; i++) {
+            double distance = cluster.squaredDistance(data, offset, means, i * dimensions);
+            if (nearestMean < 0 || distance < minDistance) {
+                secondDistance = minDistance;
+                minDistance = distance;
+                nearestMean = i;
+            } else if (distance < secondDistance) {
+                secondDistance = distance;
+            }
+        }
+        chunk.distanceCount += meanCount;
+        upper[index] = Math.sqrt(minDistance);
+        lower[index] = Math.sqrt(secondDistance);
+        return nearestMean;
+    }
+}
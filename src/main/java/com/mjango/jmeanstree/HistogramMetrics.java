@@ -0,0 +1,188 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics aggregated into {@link Histogram}s, and also emitted as Java Flight Recorder events
+ * (<code>com.mjango.jmeanstree.Query</code> and <code>com.mjango.jmeanstree.Build</code>) while
+ * a recording that enables them is running.  Every query and build is recorded, so the
+ * histograms can be polled and exported while the tree serves traffic, with no profiler
+ * attached.  On runtimes without Flight Recorder (<code>jdk.jfr</code>), only the histograms are
+ * recorded.
+ * <p/>
+ * Size skew is the largest sub-cluster's member count relative to the mean sub-cluster size,
+ * in thousandths: 1000 means perfectly balanced sub-clusters, and K * 1000 means every member
+ * went to one sub-cluster.
+ */
+public class HistogramMetrics implements IMetrics {
+    // FlightRecorderEvents is only loaded, and jdk.jfr with it, once this has found jdk.jfr.
+    private static final boolean FLIGHT_RECORDER = hasFlightRecorder();
+
+    private final Histogram queryLatency;
+    private final Histogram queryDistances;
+    private final LongAdder[] levelVisits;
+    private final Histogram buildTime;
+    private final Histogram buildIterations;
+    private final Histogram buildSkew;
+
+    public HistogramMetrics() {
+        queryLatency = new Histogram();
+        queryDistances = new Histogram();
+        levelVisits = new LongAdder[MAX_LEVELS];
+        for (int i = 0; i < MAX_LEVELS; i++) {
+            levelVisits[i] = new LongAdder();
+        }
+        buildTime = new Histogram();
+        buildIterations = new Histogram();
+        buildSkew = new Histogram();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void recordQuery(long nanos, int distanceCount, int[] levelVisits) {
+        queryLatency.record(nanos);
+        queryDistances.record(distanceCount);
+        int nodes = 0;
+        for (int i = 0; i < levelVisits.length; i++) {
+            if (levelVisits[i] != 0) {
+                this.levelVisits[i].add(levelVisits[i]);
+                nodes += levelVisits[i];
+            }
+        }
+
+        if (FLIGHT_RECORDER) {
+            FlightRecorderEvents.query(nanos, distanceCount, nodes);
+        }
+    }
+
+    @Override
+    public void recordBuild(int level,
+                            int size,
+                            int iterations,
+                            long nanos,
+                            int[] subClusterSizes) {
+        int largest = 0;
+        for (int subClusterSize : subClusterSizes) {
+            largest = Math.max(largest, subClusterSize);
+        }
+        long skew = size > 0 ? 1000L * largest * subClusterSizes.length / size : 0;
+        buildTime.record(nanos);
+        buildIterations.record(iterations);
+        buildSkew.record(skew);
+
+        if (FLIGHT_RECORDER) {
+            FlightRecorderEvents.build(level,
+                                       size,
+                                       iterations,
+                                       nanos,
+                                       subClusterSizes.length,
+                                       skew);
+        }
+    }
+
+    /**
+     * Get the wall-clock time of each k-nearest-neighbor query, in nanoseconds.
+     *
+     * @return the query latency histogram.
+     */
+    public Histogram getQueryLatency() {
+        return queryLatency;
+    }
+
+    /**
+     * Get the number of distance calculations made by each query.
+     *
+     * @return the query distance count histogram.
+     */
+    public Histogram getQueryDistances() {
+        return queryDistances;
+    }
+
+    /**
+     * Get the total number of nodes visited by queries at a level of the tree.
+     *
+     * @param level level, the root being level 0; the last level counts all deeper nodes.
+     * @return the number of visits.
+     */
+    public long getLevelVisits(int level) {
+        return levelVisits[level].sum();
+    }
+
+    /**
+     * Get the wall-clock time of each cluster calculation, in nanoseconds.
+     *
+     * @return the build time histogram.
+     */
+    public Histogram getBuildTime() {
+        return buildTime;
+    }
+
+    /**
+     * Get the number of Lloyd iterations of each cluster calculation.
+     *
+     * @return the build iteration histogram.
+     */
+    public Histogram getBuildIterations() {
+        return buildIterations;
+    }
+
+    /**
+     * Get the size skew of each cluster calculation's sub-clusters, in thousandths.
+     *
+     * @return the size skew histogram.
+     */
+    public Histogram getBuildSkew() {
+        return buildSkew;
+    }
+
+    /**
+     * Clear every histogram and visit count.
+     */
+    public void reset() {
+        queryLatency.reset();
+        queryDistances.reset();
+        for (LongAdder visits : levelVisits) {
+            visits.reset();
+        }
+        buildTime.reset();
+        buildIterations.reset();
+        buildSkew.reset();
+    }
+
+    private static boolean hasFlightRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -54,6 +54,14 @@ public interface ICluster<T> extends Iterable<IVect<T>> {
      */
     int size();
 
+    /**
+     * Remove a vector from this cluster and its sub-clusters.
+     *
+     * @param id id of the vector in the cluster's store.
+     * @return <code>true</code> if the vector was removed.
+     */
+    boolean remove(int id);
+
     /**
      * Get an IVect from this cluster.
      *
@@ -80,6 +88,52 @@ public interface ICluster<T> extends Iterable<IVect<T>> {
      */
     IVect<T> getNearestNeighbor(IVect<T> vect, int[] compareCount);
 
+    /**
+     * Get a vector's nearest neighbor from this cluster (or one of its sub-clusters), exploring
+     * the branches not taken by the greedy descent, nearest centroid first, until a comparison
+     * budget runs out.  A larger budget trades latency for a better chance of finding the true
+     * nearest neighbor.
+     *
+     * @param vect         vector of interest.
+     * @param maxChecks    maximum number of comparisons to make before giving up on unexplored
+     *                     branches; 0 only makes the greedy descent.
+     * @param compareCount a 1-element int array to track number of comparisons used in finding
+     *                     the nearest neighbor.
+     * @return the vector's nearest neighbor.
+     */
+    IVect<T> getNearestNeighbor(IVect<T> vect, int maxChecks, int[] compareCount);
+
+    /**
+     * Get a vector's K nearest neighbors from this cluster (or its sub-clusters), searching
+     * best-bin-first like {@link #getNearestNeighbor(IVect, int, int[])}.  The search goes on past
+     * the comparison budget until K neighbors have been found, or every branch has been explored.
+     *
+     * @param vect         vector of interest.
+     * @param k            number of neighbors to find.
+     * @param maxChecks    maximum number of comparisons to make before giving up on unexplored
+     *                     branches.
+     * @param results      list to reuse for the results, or <code>null</code> to allocate one.
+     * @param compareCount a 1-element int array to track number of comparisons used in finding
+     *                     the nearest neighbors.
+     * @return the neighbors' store ids and distances, nearest first.
+     */
+    NeighborList getNearestNeighbors(IVect<T> vect,
+                                     int k,
+                                     int maxChecks,
+                                     NeighborList results,
+                                     int[] compareCount);
+
+    /**
+     * Visit every vector in this cluster (or its sub-clusters) within a given distance of a
+     * vector.  Matches are streamed to the visitor as they are found, in no particular order.
+     *
+     * @param vect         vector of interest.
+     * @param radius       maximum distance from <code>vect</code>.
+     * @param visitor      receives each match; returning <code>false</code> stops the query.
+     * @param compareCount a 1-element int array to track number of comparisons.
+     */
+    void rangeSearch(IVect<T> vect, double radius, INeighborVisitor visitor, int[] compareCount);
+
     /**
      * Get an IVect representing the centroid of this cluster.
      *
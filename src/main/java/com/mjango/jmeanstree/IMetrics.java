@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+/**
+ * Receives measurements from the queries and builds of a K-Means tree.  Implementations are
+ * shared by every cluster of the tree (and every tree of a forest) and are called from many
+ * threads at once, so they must be thread-safe.
+ */
+public interface IMetrics {
+    /**
+     * Levels tracked by the per-level visit counts.  Deeper nodes are counted in the last level.
+     */
+    int MAX_LEVELS = 32;
+
+    /**
+     * Check whether this instance records anything.  When it does not, the tree skips taking
+     * timestamps and counting visits, so metrics cost nothing when they are not wanted.
+     *
+     * @return <code>true</code> if measurements should be gathered and reported.
+     */
+    boolean isEnabled();
+
+    /**
+     * Record a completed k-nearest-neighbor query.
+     *
+     * @param nanos         wall-clock time of the query.
+     * @param distanceCount number of distance calculations made, to centroids and to members.
+     * @param levelVisits   number of nodes visited at each level, the root being level 0; only
+     *                      valid during the call.
+     */
+    void recordQuery(long nanos, int distanceCount, int[] levelVisits);
+
+    /**
+     * Record the calculation of a cluster's sub-clusters.
+     *
+     * @param level          level of the cluster, the root being level 0.
+     * @param size           number of members clustered.
+     * @param iterations     number of Lloyd iterations made.
+     * @param nanos          wall-clock time of the calculation.
+     * @param subClusterSizes member count of each sub-cluster; only valid during the call.
+     */
+    void recordBuild(int level, int size, int iterations, long nanos, int[] subClusterSizes);
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+/**
+ * Specialization of {@link com.mjango.jmeanstree.IDistanceCalculator} that works directly on
+ * primitive arrays, avoiding the boxing of {@link IVect#get(int)}.  Distances are returned
+ * squared, so implementations should only be used where the squared distance preserves the
+ * ordering of the underlying distance measure.
+ */
+public interface IPrimitiveDistanceCalculator<T> extends IDistanceCalculator<T> {
+
+    /**
+     * Calculate the squared distance between two vectors held in primitive arrays.
+     *
+     * @param a       array holding the first vector.
+     * @param aOffset offset of the first vector in <code>a</code>.
+     * @param b       array holding the second vector.
+     * @param bOffset offset of the second vector in <code>b</code>.
+     * @param length  number of dimensions to compare.
+     * @return the squared distance between the two vectors.
+     */
+    double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    /**
+     * Calculate the squared distance between two vectors held in primitive arrays, giving up as
+     * soon as the partial distance exceeds a threshold.
+     *
+     * @param a         array holding the first vector.
+     * @param aOffset   offset of the first vector in <code>a</code>.
+     * @param b         array holding the second vector.
+     * @param bOffset   offset of the second vector in <code>b</code>.
+     * @param length    number of dimensions to compare.
+     * @param threshold best-so-far squared distance.
+     * @return the squared distance between the two vectors, or some value greater than
+     * <code>threshold</code> if the calculation was abandoned.
+     */
+    double squaredDistance(double[] a,
+                           int aOffset,
+                           double[] b,
+                           int bOffset,
+                           int length,
+                           double threshold);
+}
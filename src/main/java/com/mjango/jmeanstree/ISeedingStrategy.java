@@ -0,0 +1,52 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.Random;
+
+/**
+ * Strategy for choosing the initial means of a cluster before its Lloyd iterations.
+ */
+public interface ISeedingStrategy {
+
+    /**
+     * Choose up to <code>k</code> initial means from a cluster's members.
+     *
+     * @param cluster     cluster being calculated.
+     * @param memberIds   store ids of the cluster's members.
+     * @param memberCount number of members.
+     * @param k           number of means to choose.
+     * @param random      random source, seeded deterministically for the cluster.
+     * @param means       receives the chosen means, row-major.
+     * @return the number of means written, which may be less than <code>k</code> if there are
+     * not enough distinct members.
+     */
+    int seed(ACluster<?> cluster,
+             int[] memberIds,
+             int memberCount,
+             int k,
+             Random random,
+             double[] means);
+}
@@ -0,0 +1,212 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A forest of k-means trees over the same vectors, each built with a different random seed.  A
+ * single tree's partitioning is fixed, so a query near a partition boundary misses the same
+ * neighbors however often it is repeated; with several independently seeded trees those
+ * boundaries fall in different places.  Queries search all the trees through one priority
+ * queue and one comparison budget, in the style of FLANN's randomized k-means forest.
+ * <p/>
+ * The trees share the template tree's {@link VectStore} and build options, apart from the seed,
+ * which each tree derives from the template's.  {@link com.mjango.jmeanstree.FirstKSeeding}
+ * ignores the seed, so trees built with it use {@link com.mjango.jmeanstree.RandomSeeding}
+ * instead.
+ */
+public class KMeansForest<T> {
+    private final ACluster<T> source;
+    private final List<ACluster<T>> roots;
+    private final List<KMeansTree<T>> trees;
+
+    /**
+     * Create a forest of trees over the vectors of a template tree.
+     *
+     * @param template  tree whose root cluster, vectors, depth and build options the forest
+     *                  copies.  The template itself is not built.
+     * @param treeCount number of trees.
+     */
+    public KMeansForest(KMeansTree<T> template, int treeCount) {
+        if (!(template.getRoot() instanceof ACluster)) {
+            throw new IllegalArgumentException("Template root must extend ACluster");
+        }
+        if (treeCount < 1) {
+            throw new IllegalArgumentException("Tree count must be at least 1");
+        }
+        this.source = (ACluster<T>) template.getRoot();
+        this.roots = new ArrayList<>(treeCount);
+        this.trees = new ArrayList<>(treeCount);
+
+        BuildOptions options = source.getOptions();
+        int[] memberIds = source.getLiveIds();
+        for (int i = 0; i < treeCount; i++) {
+            BuildOptions treeOptions = new BuildOptions(options);
+            treeOptions.setSeed(ACluster.deriveSeed(options.getSeed(), i));
+            if (options.getSeedingStrategy() instanceof FirstKSeeding) {
+                treeOptions.setSeedingStrategy(new RandomSeeding());
+            }
+            ACluster<T> root = source.createRoot();
+            root.setOptions(treeOptions);
+            for (int id : memberIds) {
+                root.addId(id);
+            }
+            roots.add(root);
+            trees.add(new KMeansTree<>(root, template.getMaxDepth()));
+        }
+    }
+
+    /**
+     * Add a vector to every tree.  In a built tree the vector descends to the leaf with the
+     * nearest centroid, as in {@link KMeansTree#insert(IVect)}, so the trees stay searchable
+     * without being rebuilt.
+     *
+     * @param vect vector to add.
+     */
+    public void add(IVect<T> vect) {
+        if (vect == null) {
+            throw new IllegalArgumentException("Vect must not be null");
+        }
+        if (vect.getDimensions() != getDimensions()) {
+            throw new IllegalArgumentException("Vect must have " + getDimensions() + " dimensions");
+        }
+        int id = source.getStore().add(source.toArray(vect));
+        source.addId(id);
+        for (ACluster<T> root : roots) {
+            root.insertPath(id).splitIfFull();
+        }
+    }
+
+    /**
+     * Remove a vector from every tree.  The trees share one tombstone bitset, so searches skip
+     * the vector straight away.
+     *
+     * @param id store id of the vector.
+     * @return <code>true</code> if the vector was removed.
+     */
+    public boolean remove(int id) {
+        if (!source.hasMember(id) || !source.getStore().delete(id)) {
+            return false;
+        }
+        source.deletePath(id);
+        for (ACluster<T> root : roots) {
+            root.deletePath(id);
+        }
+        source.getStore().markCompactable(id);
+        return true;
+    }
+
+    /**
+     * Compact every tree.  See {@link ACluster#compact()}.
+     */
+    public void compact() {
+        source.compact();
+        for (ACluster<T> root : roots) {
+            root.compact();
+        }
+    }
+
+    /**
+     * Build every tree, in parallel as fork-join tasks on the shared executor if it is a
+     * ForkJoinPool and on the common pool otherwise.
+     */
+    public void calculate() {
+        List<RecursiveAction> tasks = new ArrayList<>(trees.size());
+        for (final KMeansTree<T> tree : trees) {
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    tree.calculate();
+                }
+            });
+        }
+        source.getOptions().getForkJoinPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    public List<KMeansTree<T>> getTrees() {
+        return Collections.unmodifiableList(trees);
+    }
+
+    public int getDimensions() {
+        return source.getDimensions();
+    }
+
+    public IVect<T> getNearestNeighbor(IVect<T> vect, int maxChecks, int[] comparisonCount) {
+        NeighborList results = new NeighborList(1);
+        ACluster.search(roots, source.toArray(vect), maxChecks, results, comparisonCount);
+        return results.size() > 0 ? source.createVect(results.getId(0)) : null;
+    }
+
+    public NeighborList getNearestNeighbors(IVect<T> vect,
+                                            int k,
+                                            int maxChecks,
+                                            NeighborList results) {
+        return getNearestNeighbors(vect, k, maxChecks, results, new int[]{0});
+    }
+
+    /**
+     * Find a query's K nearest neighbors across all the trees.  See
+     * {@link ICluster#getNearestNeighbors(IVect, int, int, NeighborList, int[])}.
+     *
+     * @param vect            query vector.
+     * @param k               number of neighbors.
+     * @param maxChecks       comparison budget shared by all the trees.
+     * @param results         list to reuse, or <code>null</code> to allocate one.
+     * @param comparisonCount a 1-element int array to track number of comparisons.
+     * @return the nearest neighbors, sorted nearest first.
+     */
+    public NeighborList getNearestNeighbors(IVect<T> vect,
+                                            int k,
+                                            int maxChecks,
+                                            NeighborList results,
+                                            int[] comparisonCount) {
+        if (results == null) {
+            results = new NeighborList(k);
+        } else {
+            results.reset(k);
+        }
+        ACluster.search(roots, source.toArray(vect), maxChecks, results, comparisonCount);
+        return results;
+    }
+
+    /**
+     * Get a vector by the store id reported in a {@link com.mjango.jmeanstree.NeighborList}.
+     *
+     * @param id store id.
+     * @return the vector.
+     */
+    public IVect<T> getVect(int id) {
+        return source.createVect(id);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Scalable k-means++ (k-means||) seeding (Bahmani et al.).  Rather than picking one mean per pass
+ * over the members, each round samples roughly <code>oversampling * k</code> candidates at once,
+ * with distance updates spread over the tree's shared executor.  After a few rounds the
+ * candidates are weighted by the number of members nearest to them and reduced to K means with a
+ * weighted k-means++ pass.  Clusters too small to benefit are seeded with plain k-means++.
+ */
+public class KMeansParallelSeeding implements ISeedingStrategy {
+    public static final double DEFAULT_OVERSAMPLING = 2;
+    public static final int DEFAULT_ROUNDS = 5;
+
+    private final double oversampling;
+    private final int rounds;
+    private final KMeansPlusPlusSeeding smallClusterSeeding;
+
+    public KMeansParallelSeeding() {
+        this(DEFAULT_OVERSAMPLING, DEFAULT_ROUNDS);
+    }
+
+    public KMeansParallelSeeding(double oversampling, int rounds) {
+        if (oversampling <= 0) {
+            throw new IllegalArgumentException("Oversampling must be positive");
+        }
+        if (rounds <= 0) {
+            throw new IllegalArgumentException("Rounds must be positive");
+        }
+        this.oversampling = oversampling;
+        this.rounds = rounds;
+        this.smallClusterSeeding = new KMeansPlusPlusSeeding();
+    }
+
+    @Override
+    public int seed(ACluster<?> cluster,
+                    int[] memberIds,
+                    int memberCount,
+                    int k,
+                    Random random,
+                    double[] means) {
+        if (memberCount <= oversampling * k * rounds) {
+            return smallClusterSeeding.seed(cluster, memberIds, memberCount, k, random, means);
+        }
+
+        // Candidate ids, and for every member the squared distance to (and index of) its
+        // nearest candidate.
+        int[] candidates = new int[k];
+        int candidateCount = 0;
+        double[] minDistances = new double[memberCount];
+        int[] nearest = new int[memberCount];
+        Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+
+        candidates[candidateCount++] = memberIds[random.nextInt(memberCount)];
+        double total = update(cluster, memberIds, memberCount, candidates, 0, 1, minDistances,
+                              nearest);
+        for (int round = 0; round < rounds && total > 0; round++) {
+            int from = candidateCount;
+            double scale = oversampling * k / total;
+            for (int i = 0; i < memberCount; i++) {
+                if (minDistances[i] > 0 && random.nextDouble() < minDistances[i] * scale) {
+                    if (candidateCount == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, candidateCount * 2);
+                    }
+                    candidates[candidateCount++] = memberIds[i];
+                }
+            }
+            total = update(cluster, memberIds, memberCount, candidates, from, candidateCount,
+                           minDistances, nearest);
+        }
+
+        double[] weights = new double[candidateCount];
+        for (int i = 0; i < memberCount; i++) {
+            weights[nearest[i]]++;
+        }
+        return reduce(cluster, candidates, candidateCount, weights, k, random, means);
+    }
+
+    /**
+     * Update every member's nearest candidate with the candidates in <code>[from, to)</code>.
+     *
+     * @return the sum of the members' squared distances to their nearest candidates.
+     */
+    private double update(ACluster<?> cluster,
+                          int[] memberIds,
+                          int memberCount,
+                          int[] candidates,
+                          int from,
+                          int to,
+                          double[] minDistances,
+                          int[] nearest) {
+        int chunkSize = cluster.getOptions().getChunkSize();
+        List<UpdateTask> tasks = new ArrayList<>();
+        for (int start = 0; start < memberCount; start += chunkSize) {
+            tasks.add(new UpdateTask(cluster,
+                                     memberIds,
+                                     start,
+                                     Math.min(memberCount, start + chunkSize),
+                                     candidates,
+                                     from,
+                                     to,
+                                     minDistances,
+                                     nearest));
+        }
+        double total = 0;
+        if (tasks.size() == 1) {
+            return tasks.get(0).call();
+        }
+        try {
+            for (Future<Double> future : cluster.getOptions().getExecutor().invokeAll(tasks)) {
+                total += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return total;
+    }
+
+    /**
+     * Reduce the weighted candidates to K means with weighted k-means++.
+     */
+    private int reduce(ACluster<?> cluster,
+                       int[] candidates,
+                       int candidateCount,
+                       double[] weights,
+                       int k,
+                       Random random,
+                       double[] means) {
+        VectStore store = cluster.getStore();
+        int dimensions = store.getDimensions();
+        double[] data = store.getData();
+        double[] minDistances = new double[candidateCount];
+        double[] scores = new double[candidateCount];
+
+        double totalWeight = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            totalWeight += weights[i];
+        }
+        int chosen = KMeansPlusPlusSeeding.sample(weights, candidateCount, totalWeight, random);
+        System.arraycopy(data, store.offset(candidates[chosen]), means, 0, dimensions);
+        int meanCount = 1;
+        Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+        while (true) {
+            int meanOffset = (meanCount - 1) * dimensions;
+            double total = 0;
+            for (int i = 0; i < candidateCount; i++) {
+                double distance = cluster.squaredDistance(data,
+                                                          store.offset(candidates[i]),
+                                                          means,
+                                                          meanOffset);
+                if (distance < minDistances[i]) {
+                    minDistances[i] = distance;
+                }
+                scores[i] = weights[i] * minDistances[i];
+                total += scores[i];
+            }
+            if (meanCount >= k || total <= 0) {
+                return meanCount;
+            }
+            chosen = KMeansPlusPlusSeeding.sample(scores, candidateCount, total, random);
+            System.arraycopy(data,
+                             store.offset(candidates[chosen]),
+                             means,
+                             meanCount++ * dimensions,
+                             dimensions);
+        }
+    }
+
+    private static class UpdateTask implements Callable<Double> {
+        private final ACluster<?> cluster;
+        private final int[] memberIds;
+        private final int start;
+        private final int end;
+        private final int[] candidates;
+        private final int from;
+        private final int to;
+        private final double[] minDistances;
+        private final int[] nearest;
+
+        public UpdateTask(ACluster<?> cluster,
+                          int[] memberIds,
+                          int start,
+                          int end,
+                          int[] candidates,
+                          int from,
+                          int to,
+                          double[] minDistances,
+                          int[] nearest) {
+            this.cluster = cluster;
+            this.memberIds = memberIds;
+            this.start = start;
+            this.end = end;
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+            this.minDistances = minDistances;
+            this.nearest = nearest;
+        }
+
+        @Override
+        public Double call() {
+            VectStore store = cluster.getStore();
+            double[] data = store.getData();
+            double total = 0;
+            for (int i = start; i < end; i++) {
+                int offset = store.offset(memberIds[i]);
+                for (int c = from; c < to; c++) {
+                    double distance = cluster.squaredDistance(data,
+                                                              offset,
+                                                              data,
+                                                              store.offset(candidates[c]));
+                    if (distance < minDistances[i]) {
+                        minDistances[i] = distance;
+                        nearest[i] = c;
+                    }
+                }
+                total += minDistances[i];
+            }
+            return total;
+        }
+    }
+}
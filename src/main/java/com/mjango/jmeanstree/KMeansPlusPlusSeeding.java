@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.Random;
+
+/**
+ * k-means++ seeding (Arthur and Vassilvitskii): the first mean is a member chosen uniformly at
+ * random, and each further mean is a member chosen with probability proportional to its squared
+ * distance from the nearest mean chosen so far.
+ */
+public class KMeansPlusPlusSeeding implements ISeedingStrategy {
+
+    @Override
+    public int seed(ACluster<?> cluster,
+                    int[] memberIds,
+                    int memberCount,
+                    int k,
+                    Random random,
+                    double[] means) {
+        if (memberCount == 0 || k == 0) {
+            return 0;
+        }
+        VectStore store = cluster.getStore();
+        int dimensions = store.getDimensions();
+        double[] data = store.getData();
+        double[] minDistances = new double[memberCount];
+
+        int chosen = random.nextInt(memberCount);
+        System.arraycopy(data, store.offset(memberIds[chosen]), means, 0, dimensions);
+        int meanCount = 1;
+        double total = 0;
+        for (int i = 0; i < memberCount; i++) {
+            minDistances[i] = cluster.squaredDistance(data, store.offset(memberIds[i]), means, 0);
+            total += minDistances[i];
+        }
+
+        while (meanCount < k && total > 0) {
+            chosen = sample(minDistances, memberCount, total, random);
+            int meanOffset = meanCount++ * dimensions;
+            System.arraycopy(data, store.offset(memberIds[chosen]), means, meanOffset, dimensions);
+            total = 0;
+            for (int i = 0; i < memberCount; i++) {
+                if (minDistances[i] > 0) {
+                    double distance = cluster.squaredDistance(data,
+                                                              store.offset(memberIds[i]),
+                                                              means,
+                                                              meanOffset);
+                    if (distance < minDistances[i]) {
+                        minDistances[i] = distance;
+                    }
+                }
+                total += minDistances[i];
+            }
+        }
+        return meanCount;
+    }
+
+    /**
+     * Pick an index with probability proportional to its weight.
+     *
+     * @param weights non-negative weights.
+     * @param count   number of weights.
+     * @param total   sum of the weights, which must be positive.
+     * @param random  random source.
+     * @return the chosen index.
+     */
+    static int sample(double[] weights, int count, double total, Random random) {
+        double target = random.nextDouble() * total;
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            if (weights[i] > 0) {
+                last = i;
+                target -= weights[i];
+                if (target < 0) {
+                    return i;
+                }
+            }
+        }
+        // Rounding can leave a sliver of the total unaccounted for.
+        return last;
+    }
+}
@@ -24,23 +24,326 @@
 
 package com.mjango.jmeanstree;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class KMeansTree<T> {
-    private final ICluster<T> root;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile ICluster<T> root;
     private final int maxDepth;
+    private final AtomicBoolean compacting;
+    private final AtomicReference<FlatIndex> snapshot;
+    private final Object publishLock;
+    // Adds, inserts and removes hold the read lock; rebuild() holds the write lock while it
+    // starts recording them and while it catches the new root up and swaps it in.
+    private final ReentrantReadWriteLock swapLock;
+    // Ids added and inserted while a rebuild runs, or null when none is running.
+    private int[] rebuildAdds;
+    private int rebuildAddCount;
+    private int[] rebuildInserts;
+    private int rebuildInsertCount;
 
     public KMeansTree(ICluster<T> root, int maxDepth) {
         this.root = root;
         this.maxDepth = maxDepth;
+        this.compacting = new AtomicBoolean(false);
+        this.snapshot = new AtomicReference<>();
+        this.publishLock = new Object();
+        this.swapLock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Create a builder for a tree over the given root cluster.
+     *
+     * @param root root cluster of the tree.
+     * @param <T>  vector value type.
+     * @return a new builder.
+     */
+    public static <T> Builder<T> builder(ICluster<T> root) {
+        return new Builder<>(root);
     }
 
     public void add(IVect<T> vect) {
-        root.add(vect);
+        swapLock.readLock().lock();
+        try {
+            ICluster<T> current = root;
+            if (current instanceof ACluster) {
+                recordAdds(((ACluster<T>) current).addVect(vect), 1);
+            } else {
+                current.add(vect);
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add a block of consecutive vectors already held in the root's {@link VectStore}.  See
+     * {@link ACluster#addIds(int, int)}.
+     *
+     * @param firstId id of the first vector in the store.
+     * @param count   number of vectors.
+     */
+    void addIds(int firstId, int count) {
+        swapLock.readLock().lock();
+        try {
+            getACluster().addIds(firstId, count);
+            recordAdds(firstId, count);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Insert a vector into the built tree without rebuilding it.  See
+     * {@link ACluster#insert(IVect)}.
+     *
+     * @param vect vector to insert.
+     * @return the vector's store id.
+     */
+    public int insert(IVect<T> vect) {
+        swapLock.readLock().lock();
+        try {
+            int id = getACluster().insert(vect);
+            recordInsert(id);
+            return id;
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a vector from the tree.  Searches skip it straight away; once the fraction of removed
+     * members reaches {@link BuildOptions#getCompactionThreshold()}, the tree is compacted in the
+     * background on the shared executor.
+     *
+     * @param id store id of the vector.
+     * @return <code>true</code> if the vector was removed.
+     */
+    public boolean remove(int id) {
+        final ACluster<T> cluster;
+        swapLock.readLock().lock();
+        try {
+            if (!root.remove(id)) {
+                return false;
+            }
+            cluster = getACluster();
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        if (cluster.getDeletedFraction() >= cluster.getOptions().getCompactionThreshold() &&
+            compacting.compareAndSet(false, true)) {
+            cluster.getOptions().getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        cluster.compact();
+                    } finally {
+                        compacting.set(false);
+                    }
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Compact the tree on the calling thread.  See {@link ACluster#compact()}.
+     */
+    public void compact() {
+        getACluster().compact();
+    }
+
+    /**
+     * Get the last published query snapshot.  A snapshot is an immutable {@link FlatIndex} on the
+     * heap: queries against it read flat arrays without taking any lock, and never see a
+     * rebuild in progress, because a new snapshot is only published once it is complete.
+     * Vectors are reported by store id, which {@link #getVect(int)} resolves.  Vectors added or
+     * removed after a snapshot was published are not reflected in it until the next one.
+     *
+     * @return the current snapshot, or <code>null</code> if none has been published.
+     */
+    public FlatIndex getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Publish a snapshot of this tree as it is now.  Call it once {@link #calculate()} has
+     * returned; the tree must not be recalculated while the snapshot is copied.
+     *
+     * @return the published snapshot.
+     */
+    public FlatIndex publish() {
+        synchronized (publishLock) {
+            FlatIndex index = FlatIndex.copyOf(this);
+            snapshot.set(index);
+            return index;
+        }
+    }
+
+    /**
+     * Build a new root over this tree's live vectors off to the side, with the same depth and
+     * build options, swap it in, and publish a snapshot of it.  The current root keeps serving
+     * adds, inserts and removes while the new one is built; they are recorded, replayed into the
+     * new root, and the roots swapped while they are briefly held off, so none is lost.  Readers
+     * keep querying the previous snapshot until the new one is published, which holds the new
+     * root as it was before the replay.  Rebuilds are serialized, so snapshots are published in
+     * order.
+     * <p/>
+     * The root must extend {@link ACluster}.  The trees of a {@link KMeansForest} are updated
+     * through the forest, which keeps their roots, so they must not be rebuilt.
+     *
+     * @return the published snapshot.
+     */
+    public FlatIndex rebuild() {
+        synchronized (publishLock) {
+            ACluster<T> source;
+            int[] liveIds;
+            swapLock.writeLock().lock();
+            try {
+                source = getACluster();
+                liveIds = source.getLiveIds();
+                startRecording();
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+            KMeansTree<T> sideTree;
+            try {
+                ACluster<T> sideRoot = source.createRoot();
+                sideRoot.setOptions(source.getOptions());
+                for (int id : liveIds) {
+                    sideRoot.addId(id);
+                }
+                sideTree = new KMeansTree<>(sideRoot, maxDepth);
+                sideTree.calculate();
+            } catch (RuntimeException | Error e) {
+                stopRecording();
+                throw e;
+            }
+            FlatIndex index = FlatIndex.copyOf(sideTree);
+            swapLock.writeLock().lock();
+            try {
+                catchUp(sideTree.getACluster(), liveIds);
+                root = sideTree.root;
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+            snapshot.set(index);
+            return index;
+        }
+    }
+
+    /**
+     * Replay into a rebuilt root the changes made to the current root since its live ids were
+     * read.  Removed vectors are already marked deleted in the shared {@link VectStore}, so they
+     * only need subtracting from the new root's clusters.  Callers hold the write lock.
+     *
+     * @param sideRoot rebuilt root.
+     * @param liveIds  ids the rebuilt root was built over.
+     */
+    private void catchUp(ACluster<T> sideRoot, int[] liveIds) {
+        VectStore store = sideRoot.getStore();
+        for (int id : liveIds) {
+            if (store.isDeleted(id)) {
+                sideRoot.deletePath(id);
+            }
+        }
+        int[] adds;
+        int addCount;
+        int[] inserts;
+        int insertCount;
+        synchronized (this) {
+            adds = rebuildAdds;
+            addCount = rebuildAddCount;
+            inserts = rebuildInserts;
+            insertCount = rebuildInsertCount;
+        }
+        stopRecording();
+        for (int i = 0; i < addCount; i++) {
+            if (!store.isDeleted(adds[i])) {
+                sideRoot.addId(adds[i]);
+            }
+        }
+        for (int i = 0; i < insertCount; i++) {
+            if (!store.isDeleted(inserts[i])) {
+                sideRoot.insertPath(inserts[i]).splitIfFull();
+            }
+        }
+    }
+
+    private synchronized void startRecording() {
+        rebuildAdds = new int[INITIAL_CAPACITY];
+        rebuildAddCount = 0;
+        rebuildInserts = new int[INITIAL_CAPACITY];
+        rebuildInsertCount = 0;
+    }
+
+    private synchronized void stopRecording() {
+        rebuildAdds = null;
+        rebuildInserts = null;
+    }
+
+    private synchronized void recordAdds(int firstId, int count) {
+        if (rebuildAdds == null) {
+            return;
+        }
+        if (rebuildAddCount + count > rebuildAdds.length) {
+            rebuildAdds = Arrays.copyOf(rebuildAdds,
+                                        Math.max(rebuildAddCount + count,
+                                                 rebuildAdds.length * 2));
+        }
+        for (int id = firstId; id < firstId + count; id++) {
+            rebuildAdds[rebuildAddCount++] = id;
+        }
+    }
+
+    private synchronized void recordInsert(int id) {
+        if (rebuildInserts == null) {
+            return;
+        }
+        if (rebuildInsertCount == rebuildInserts.length) {
+            rebuildInserts = Arrays.copyOf(rebuildInserts, rebuildInsertCount * 2);
+        }
+        rebuildInserts[rebuildInsertCount++] = id;
+    }
+
+    /**
+     * Run {@link #rebuild()} on a new daemon thread.  The rebuild's own k-means tasks run on the
+     * shared executor, so running the rebuild there as well could leave it waiting on tasks
+     * queued behind it.
+     *
+     * @return the pending snapshot.
+     */
+    public Future<FlatIndex> rebuildInBackground() {
+        FutureTask<FlatIndex> task = new FutureTask<>(new Callable<FlatIndex>() {
+            @Override
+            public FlatIndex call() {
+                return rebuild();
+            }
+        });
+        Thread thread = new Thread(task, "jmeanstree-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
     }
 
     public void calculate() {
-        calculate(root, 1, maxDepth);
+        BuildOptions options = getOptions();
+        if (options != null && options.isForkJoinBuild()) {
+            options.getForkJoinPool().invoke(new SubTreeTask(root, 1, options));
+        } else {
+            calculate(root, 1, maxDepth);
+        }
     }
 
     public int getK() {
@@ -59,6 +362,16 @@ public class KMeansTree<T> {
         return root;
     }
 
+    /**
+     * Get the build options of this tree.
+     *
+     * @return the root cluster's build options, or <code>null</code> if the root is not an
+     * {@link com.mjango.jmeanstree.ACluster}.
+     */
+    public BuildOptions getOptions() {
+        return root instanceof ACluster ? ((ACluster<T>) root).getOptions() : null;
+    }
+
     public IVect<T> getNearestNeighbor(IVect<T> vect) {
         return root.getNearestNeighbor(vect);
     }
@@ -67,6 +380,113 @@ public class KMeansTree<T> {
         return root.getNearestNeighbor(vect, comparisonCount);
     }
 
+    public IVect<T> getNearestNeighbor(IVect<T> vect, int maxChecks, int[] comparisonCount) {
+        return root.getNearestNeighbor(vect, maxChecks, comparisonCount);
+    }
+
+    public NeighborList getNearestNeighbors(IVect<T> vect, int k) {
+        return root.getNearestNeighbors(vect, k, 0, null, new int[]{0});
+    }
+
+    public NeighborList getNearestNeighbors(IVect<T> vect,
+                                            int k,
+                                            int maxChecks,
+                                            NeighborList results) {
+        return root.getNearestNeighbors(vect, k, maxChecks, results, new int[]{0});
+    }
+
+    public NeighborList getNearestNeighbors(IVect<T> vect,
+                                            int k,
+                                            int maxChecks,
+                                            NeighborList results,
+                                            int[] comparisonCount) {
+        return root.getNearestNeighbors(vect, k, maxChecks, results, comparisonCount);
+    }
+
+    /**
+     * Find the K nearest neighbors of a batch of queries in parallel, on the shared executor if it
+     * is a ForkJoinPool and on the common pool otherwise.  Queries are grouped by the root
+     * sub-cluster they route to, so that each part of the tree stays hot in cache while the
+     * queries routed to it are searched.
+     *
+     * @param queries   queries, row-major with a stride of {@link #getDimensions()}.
+     * @param k         number of neighbors per query.
+     * @param maxChecks comparison budget per query.
+     * @param ids       receives the store ids of each query's neighbors, nearest first, at
+     *                  offset <code>query * k</code>; -1 where fewer than K were found.
+     * @param distances receives the matching distances; infinity where fewer than K were found.
+     * @return the total number of comparisons made.
+     */
+    public long getNearestNeighbors(double[] queries,
+                                    int k,
+                                    int maxChecks,
+                                    int[] ids,
+                                    double[] distances) {
+        return new BatchSearch<>(getACluster(),
+                               queries,
+                               0,
+                               queries.length / getDimensions(),
+                               k,
+                               maxChecks,
+                               ids,
+                               distances).run();
+    }
+
+    /**
+     * Find the K nearest neighbors of every vector in a store, in parallel.  See
+     * {@link #getNearestNeighbors(double[], int, int, int[], double[])}.
+     *
+     * @param queries   store holding the queries.
+     * @param k         number of neighbors per query.
+     * @param maxChecks comparison budget per query.
+     * @param ids       receives the store ids of each query's neighbors.
+     * @param distances receives the matching distances.
+     * @return the total number of comparisons made.
+     */
+    public long getNearestNeighbors(VectStore queries,
+                                    int k,
+                                    int maxChecks,
+                                    int[] ids,
+                                    double[] distances) {
+        return new BatchSearch<>(getACluster(),
+                               queries.getData(),
+                               0,
+                               queries.size(),
+                               k,
+                               maxChecks,
+                               ids,
+                               distances).run();
+    }
+
+    public void rangeSearch(IVect<T> vect, double radius, INeighborVisitor visitor) {
+        root.rangeSearch(vect, radius, visitor, new int[]{0});
+    }
+
+    public void rangeSearch(IVect<T> vect,
+                            double radius,
+                            INeighborVisitor visitor,
+                            int[] comparisonCount) {
+        root.rangeSearch(vect, radius, visitor, comparisonCount);
+    }
+
+    /**
+     * Get a vector by the store id reported in a {@link com.mjango.jmeanstree.NeighborList}.
+     *
+     * @param id store id.
+     * @return the vector, or <code>null</code> if the root is not an
+     * {@link com.mjango.jmeanstree.ACluster}.
+     */
+    public IVect<T> getVect(int id) {
+        return root instanceof ACluster ? ((ACluster<T>) root).createVect(id) : null;
+    }
+
+    private ACluster<T> getACluster() {
+        if (!(root instanceof ACluster)) {
+            throw new UnsupportedOperationException("Root must extend ACluster");
+        }
+        return (ACluster<T>) root;
+    }
+
     private void calculate(ICluster<T> cluster, int currentDepth, int maxDepth) {
         if (currentDepth < maxDepth) {
             List<? extends ICluster<T>> subClusters = cluster.calculate();
@@ -77,4 +497,264 @@ public class KMeansTree<T> {
             }
         }
     }
+
+    /**
+     * Fork-join task that calculates one cluster, then forks a task per sub-cluster.  Clusters
+     * smaller than {@link BuildOptions#getSequentialThreshold()} calculate their whole sub-tree
+     * on the current thread, leaving idle workers to steal larger sub-trees.
+     */
+    private class SubTreeTask extends RecursiveAction {
+        private final ICluster<T> cluster;
+        private final int currentDepth;
+        private final BuildOptions options;
+
+        public SubTreeTask(ICluster<T> cluster, int currentDepth, BuildOptions options) {
+            this.cluster = cluster;
+            this.currentDepth = currentDepth;
+            this.options = options;
+        }
+
+        @Override
+        protected void compute() {
+            if (cluster.size() < options.getSequentialThreshold()) {
+                calculate(cluster, currentDepth, maxDepth);
+                return;
+            }
+            if (currentDepth < maxDepth) {
+                List<? extends ICluster<T>> subClusters = cluster.calculate();
+                if (subClusters != null) {
+                    List<SubTreeTask> tasks = new ArrayList<>(subClusters.size());
+                    for (ICluster<T> subCluster : subClusters) {
+                        tasks.add(new SubTreeTask(subCluster, currentDepth + 1, options));
+                    }
+                    invokeAll(tasks);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link com.mjango.jmeanstree.KMeansTree} instances.  Build settings only apply
+     * to root clusters extending {@link com.mjango.jmeanstree.ACluster}.
+     */
+    public static class Builder<T> {
+        private final ICluster<T> root;
+        private final BuildOptions options;
+        private int maxDepth;
+
+        private Builder(ICluster<T> root) {
+            if (root == null) {
+                throw new IllegalArgumentException("Root must not be null");
+            }
+            this.root = root;
+            this.options = root instanceof ACluster ?
+                           new BuildOptions(((ACluster<T>) root).getOptions()) :
+                           new BuildOptions();
+            this.maxDepth = 1;
+        }
+
+        public Builder<T> maxDepth(int maxDepth) {
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * Set the executor shared by every cluster in the tree.  Defaults to the common
+         * ForkJoinPool.  The executor is not shut down by the tree.
+         *
+         * @param executor shared executor.
+         * @return this builder.
+         */
+        public Builder<T> executor(ExecutorService executor) {
+            options.setExecutor(executor);
+            return this;
+        }
+
+        /**
+         * Set the number of vectors assigned by a single task during a k-means iteration.
+         *
+         * @param chunkSize assignment chunk size.
+         * @return this builder.
+         */
+        public Builder<T> chunkSize(int chunkSize) {
+            options.setChunkSize(chunkSize);
+            return this;
+        }
+
+        /**
+         * Build sibling sub-trees in parallel as fork-join tasks, using the shared executor if it
+         * is a ForkJoinPool and the common pool otherwise.
+         *
+         * @param forkJoinBuild whether to build the tree with fork-join tasks.
+         * @return this builder.
+         */
+        public Builder<T> forkJoinBuild(boolean forkJoinBuild) {
+            options.setForkJoinBuild(forkJoinBuild);
+            return this;
+        }
+
+        /**
+         * Set the cluster size below which a fork-join build calculates a sub-tree sequentially.
+         *
+         * @param sequentialThreshold sequential threshold.
+         * @return this builder.
+         */
+        public Builder<T> sequentialThreshold(int sequentialThreshold) {
+            options.setSequentialThreshold(sequentialThreshold);
+            return this;
+        }
+
+        /**
+         * Set the strategy that chooses each cluster's initial means.  Defaults to
+         * {@link com.mjango.jmeanstree.FirstKSeeding}.
+         *
+         * @param seedingStrategy seeding strategy.
+         * @return this builder.
+         */
+        public Builder<T> seeding(ISeedingStrategy seedingStrategy) {
+            options.setSeedingStrategy(seedingStrategy);
+            return this;
+        }
+
+        /**
+         * Set the random seed that every cluster's seed is derived from.
+         *
+         * @param seed random seed.
+         * @return this builder.
+         */
+        public Builder<T> seed(long seed) {
+            options.setSeed(seed);
+            return this;
+        }
+
+        /**
+         * Set the algorithm used for the assignment step.  Defaults to
+         * {@link AssignmentAlgorithm#LLOYD}; the accelerated algorithms produce the same
+         * clustering with fewer distance calculations, but require a metric distance.
+         *
+         * @param assignmentAlgorithm assignment algorithm.
+         * @return this builder.
+         */
+        public Builder<T> assignment(AssignmentAlgorithm assignmentAlgorithm) {
+            options.setAssignmentAlgorithm(assignmentAlgorithm);
+            return this;
+        }
+
+        /**
+         * Use mini-batch k-means for clusters with at least <code>miniBatchThreshold</code>
+         * members.  Smaller clusters keep using full-batch Lloyd iterations.
+         *
+         * @param miniBatchThreshold minimum cluster size for mini-batch k-means.
+         * @return this builder.
+         */
+        public Builder<T> miniBatchThreshold(int miniBatchThreshold) {
+            options.setMiniBatchThreshold(miniBatchThreshold);
+            return this;
+        }
+
+        /**
+         * Set the number of members sampled for each mini-batch update.
+         *
+         * @param miniBatchSize mini-batch size.
+         * @return this builder.
+         */
+        public Builder<T> miniBatchSize(int miniBatchSize) {
+            options.setMiniBatchSize(miniBatchSize);
+            return this;
+        }
+
+        /**
+         * Set the number of mini-batch updates made before the final full assignment.
+         *
+         * @param miniBatchIterations number of mini-batch iterations.
+         * @return this builder.
+         */
+        public Builder<T> miniBatchIterations(int miniBatchIterations) {
+            options.setMiniBatchIterations(miniBatchIterations);
+            return this;
+        }
+
+        /**
+         * Set the maximum number of Lloyd iterations per cluster.
+         *
+         * @param maxIterations iteration cap.
+         * @return this builder.
+         */
+        public Builder<T> maxIterations(int maxIterations) {
+            options.setMaxIterations(maxIterations);
+            return this;
+        }
+
+        /**
+         * Stop iterating a cluster once no mean moved further than <code>tolerance</code> times
+         * the root-mean-square distance of its members from their centroid.
+         *
+         * @param tolerance relative centroid-shift tolerance.
+         * @return this builder.
+         */
+        public Builder<T> tolerance(double tolerance) {
+            options.setTolerance(tolerance);
+            return this;
+        }
+
+        /**
+         * Stop iterating a cluster once fewer than this fraction of its members changed means.
+         *
+         * @param minChangedFraction minimum changed fraction.
+         * @return this builder.
+         */
+        public Builder<T> minChangedFraction(double minChangedFraction) {
+            options.setMinChangedFraction(minChangedFraction);
+            return this;
+        }
+
+        /**
+         * Split a leaf into K sub-clusters once {@link KMeansTree#insert(IVect)} grows it past
+         * <code>leafSplitThreshold</code> members.  A leaf needs at least K members to split, so
+         * the threshold must be at least the root's K.
+         *
+         * @param leafSplitThreshold leaf split threshold.
+         * @return this builder.
+         */
+        public Builder<T> leafSplitThreshold(int leafSplitThreshold) {
+            if (leafSplitThreshold < root.getK()) {
+                throw new IllegalArgumentException("Leaf split threshold must be at least K (" +
+                                                   root.getK() + ")");
+            }
+            options.setLeafSplitThreshold(leafSplitThreshold);
+            return this;
+        }
+
+        /**
+         * Start a background compaction once this fraction of the root's members have been
+         * removed.  Defaults to {@link BuildOptions#DEFAULT_COMPACTION_THRESHOLD}.
+         *
+         * @param compactionThreshold deleted fraction that triggers compaction.
+         * @return this builder.
+         */
+        public Builder<T> compactionThreshold(double compactionThreshold) {
+            options.setCompactionThreshold(compactionThreshold);
+            return this;
+        }
+
+        /**
+         * Report query latencies, distance counts and per-level visits, and per-cluster build
+         * iterations, times and size skew, into <code>metrics</code>.  Defaults to
+         * {@link NoOpMetrics#INSTANCE}.
+         *
+         * @param metrics metrics to report into.
+         * @return this builder.
+         */
+        public Builder<T> metrics(IMetrics metrics) {
+            options.setMetrics(metrics);
+            return this;
+        }
+
+        public KMeansTree<T> build() {
+            if (root instanceof ACluster) {
+                ((ACluster<T>) root).setOptions(options);
+            }
+            return new KMeansTree<>(root, maxDepth);
+        }
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps each store id in a tree to the leaf cluster holding it, so that a removal finds the
+ * vector's path by following parent links up from the leaf instead of searching member arrays.
+ * Entries live in chunks of 65536 that are created on first use, and the array of chunks grows
+ * with the largest id seen, so a tree over a small part of a large {@link VectStore} stays small.
+ * Entries are written while holding the lock of the cluster the vector leaves, and read without
+ * locking.
+ */
+final class LeafIndex<T> {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // Replaced, under this index's lock, whenever a chunk is created beyond its end.
+    private volatile AtomicReferenceArray<AtomicReferenceArray<ACluster<T>>> chunks;
+
+    LeafIndex() {
+        chunks = new AtomicReferenceArray<>(1);
+    }
+
+    /**
+     * Get the leaf holding a vector.
+     *
+     * @param id id of the vector in the store.
+     * @return the leaf, or <code>null</code> if the vector was never added to the tree.
+     */
+    ACluster<T> get(int id) {
+        AtomicReferenceArray<AtomicReferenceArray<ACluster<T>>> current = chunks;
+        int index = id >>> CHUNK_BITS;
+        if (index >= current.length()) {
+            return null;
+        }
+        AtomicReferenceArray<ACluster<T>> chunk = current.get(index);
+        return chunk != null ? chunk.get(id & CHUNK_MASK) : null;
+    }
+
+    /**
+     * Record the leaf now holding a vector.
+     *
+     * @param id   id of the vector in the store.
+     * @param leaf the leaf.
+     */
+    void set(int id, ACluster<T> leaf) {
+        AtomicReferenceArray<AtomicReferenceArray<ACluster<T>>> current = chunks;
+        int index = id >>> CHUNK_BITS;
+        AtomicReferenceArray<ACluster<T>> chunk = index < current.length() ?
+                                                  current.get(index) :
+                                                  null;
+        if (chunk == null) {
+            chunk = createChunk(index);
+        }
+        chunk.set(id & CHUNK_MASK, leaf);
+    }
+
+    /**
+     * Create the chunk at an index, growing the array of chunks to reach it.  Chunks are only
+     * created here, so growing never loses one created concurrently.
+     */
+    private synchronized AtomicReferenceArray<ACluster<T>> createChunk(int index) {
+        AtomicReferenceArray<AtomicReferenceArray<ACluster<T>>> current = chunks;
+        if (index < current.length() && current.get(index) != null) {
+            return current.get(index);
+        }
+        if (index >= current.length()) {
+            AtomicReferenceArray<AtomicReferenceArray<ACluster<T>>> grown =
+                    new AtomicReferenceArray<>(Math.max(index + 1, current.length() * 2));
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            current = grown;
+        }
+        AtomicReferenceArray<ACluster<T>> chunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+        current.set(index, chunk);
+        chunks = current;
+        return chunk;
+    }
+}
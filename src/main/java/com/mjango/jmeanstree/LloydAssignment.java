@@ -0,0 +1,60 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+/**
+ * Naive assignment: every member is compared with every mean, every iteration, using the
+ * early-abandon squared distance.
+ */
+class LloydAssignment extends AssignmentEngine {
+
+    LloydAssignment(ACluster<?> cluster, int[] memberIds, int memberCount, int[] assignments) {
+        super(cluster, memberIds, memberCount, assignments);
+    }
+
+    @Override
+    protected int prepare() {
+        return 0;
+    }
+
+    @Override
+    protected int assign(int index, double[] data, int offset, Chunk chunk) {
+        int nearestMean = -1;
+        double minDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < meanCount; i++) {
+            double distance = cluster.squaredDistance(data,
+                                                      offset,
+                                                      means,
+                                                      i * dimensions,
+                                                      minDistance);
+            if (nearestMean < 0 || distance < minDistance) {
+                minDistance = distance;
+                nearestMean = i;
+            }
+        }
+        chunk.distanceCount += meanCount;
+        return nearestMean;
+    }
+}
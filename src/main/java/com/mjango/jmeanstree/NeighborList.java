@@ -0,0 +1,209 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.Arrays;
+
+/**
+ * Reusable container for the results of a k-nearest-neighbor query.  While a query runs, the
+ * neighbors are kept in a bounded max-heap keyed by distance, so the worst neighbor found so far
+ * can be replaced in O(log k).  Once the query completes they are sorted nearest first.  Calling
+ * {@link #reset(int)} lets one instance (and its arrays) serve any number of queries.
+ */
+public class NeighborList {
+    private int capacity;
+    private int size;
+    private int[] ids;
+    private double[] distances;
+
+    public NeighborList(int capacity) {
+        ids = new int[0];
+        distances = new double[0];
+        reset(capacity);
+    }
+
+    /**
+     * Clear this list for a new query.
+     *
+     * @param capacity number of neighbors to keep.
+     */
+    public void reset(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (ids.length < capacity) {
+            ids = new int[capacity];
+            distances = new double[capacity];
+        }
+        this.capacity = capacity;
+        this.size = 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of neighbors found.
+     *
+     * @return number of neighbors in this list.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Get the store id of a neighbor.  Neighbors are ranked nearest first once the query has
+     * completed.
+     *
+     * @param rank rank of the neighbor.
+     * @return store id of the neighbor.
+     */
+    public int getId(int rank) {
+        checkRank(rank);
+        return ids[rank];
+    }
+
+    /**
+     * Get the distance of a neighbor from the query.
+     *
+     * @param rank rank of the neighbor.
+     * @return distance of the neighbor.
+     */
+    public double getDistance(int rank) {
+        checkRank(rank);
+        return distances[rank];
+    }
+
+    /**
+     * Get the distance a candidate must beat to enter this list.
+     *
+     * @return distance of the worst neighbor if this list is full, otherwise infinity.
+     */
+    public double getThreshold() {
+        return size < capacity ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * Offer a candidate neighbor.
+     *
+     * @param id       store id of the candidate.
+     * @param distance distance of the candidate from the query.
+     * @return <code>true</code> if the candidate was kept.
+     */
+    public boolean offer(int id, double distance) {
+        if (size < capacity) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distance) {
+                    break;
+                }
+                ids[i] = ids[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            distances[i] = distance;
+            return true;
+        }
+        if (distance >= distances[0]) {
+            return false;
+        }
+        siftDown(0, size, id, distance);
+        return true;
+    }
+
+    /**
+     * Check whether a store id is already in this list.
+     *
+     * @param id store id.
+     * @return <code>true</code> if the id is in this list.
+     */
+    public boolean contains(int id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Complete a query: sort the neighbors nearest first, and convert the squared distances used
+     * during the search into distances.
+     */
+    void finish() {
+        // Heap sort: repeatedly move the current maximum to the end of the heap.
+        for (int end = size - 1; end > 0; end--) {
+            int id = ids[end];
+            double distance = distances[end];
+            ids[end] = ids[0];
+            distances[end] = distances[0];
+            siftDown(0, end, id, distance);
+        }
+        for (int i = 0; i < size; i++) {
+            distances[i] = Math.sqrt(distances[i]);
+        }
+    }
+
+    private void siftDown(int i, int end, int id, double distance) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= end) {
+                break;
+            }
+            if (child + 1 < end && distances[child + 1] > distances[child]) {
+                child++;
+            }
+            if (distances[child] <= distance) {
+                break;
+            }
+            ids[i] = ids[child];
+            distances[i] = distances[child];
+            i = child;
+        }
+        ids[i] = id;
+        distances[i] = distance;
+    }
+
+    private void checkRank(int rank) {
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException("Rank: " + rank + ", Size: " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NeighborList{" +
+               "ids=" + Arrays.toString(Arrays.copyOf(ids, size)) +
+               ", distances=" + Arrays.toString(Arrays.copyOf(distances, size)) +
+               '}';
+    }
+}
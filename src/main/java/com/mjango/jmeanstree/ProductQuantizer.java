@@ -0,0 +1,233 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.Random;
+
+/**
+ * Product quantizer: splits vectors into M contiguous subspaces and encodes each sub-vector as
+ * the one-byte index of its nearest codeword in that subspace's codebook of up to 256 codewords.
+ * The codebooks are trained with this library's own k-means, one single-level tree per
+ * subspace.  Queries compare against codes through a lookup table of the query's squared
+ * distance to every codeword, so a comparison costs M table lookups instead of d multiplies.
+ * <p/>
+ * With residual encoding, a vector's residual from its leaf centroid is encoded instead of the
+ * vector itself, which spends the codebooks on the small spread within a leaf rather than on the
+ * whole data set.  Tables are then built per leaf, from the query's residual.
+ */
+class ProductQuantizer {
+    static final int CODEWORDS = 256;
+
+    private static final int TRAINING_POINTS_PER_CODEWORD = 32;
+    private static final int TRAINING_ITERATIONS = 25;
+
+    private final int dimensions;
+    private final int m;
+    private final int[] starts;
+    private final double[] codebooks;
+
+    /**
+     * Create a quantizer from codebooks.
+     *
+     * @param dimensions vector dimensions.
+     * @param m          number of subspaces.
+     * @param codebooks  for each subspace in turn, {@link #CODEWORDS} codewords of that
+     *                   subspace's width, row-major.
+     */
+    ProductQuantizer(int dimensions, int m, double[] codebooks) {
+        if (m <= 0 || m > dimensions) {
+            throw new IllegalArgumentException("Subspaces must be between 1 and " + dimensions);
+        }
+        if (codebooks.length != CODEWORDS * dimensions) {
+            throw new IllegalArgumentException("Codebooks must hold " + CODEWORDS * dimensions +
+                                               " values");
+        }
+        this.dimensions = dimensions;
+        this.m = m;
+        this.starts = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            starts[j] = (int) ((long) j * dimensions / m);
+        }
+        this.codebooks = codebooks;
+    }
+
+    /**
+     * Train codebooks on a sample of vectors.
+     *
+     * @param store     store holding the vectors.
+     * @param ids       store ids of the training vectors.
+     * @param centroids if not <code>null</code>, the centroid each training vector's residual is
+     *                  taken from, one per id.
+     * @param m         number of subspaces.
+     * @param options   build options for the codebook trees, apart from their metrics; their
+     *                  seed also drives sampling.
+     * @return the trained quantizer.
+     */
+    static ProductQuantizer train(VectStore store,
+                                  int[] ids,
+                                  double[][] centroids,
+                                  int m,
+                                  BuildOptions options) {
+        if (ids.length == 0) {
+            throw new IllegalArgumentException("No vectors to train on");
+        }
+        int dimensions = store.getDimensions();
+        int sampleCount = Math.min(ids.length, CODEWORDS * TRAINING_POINTS_PER_CODEWORD);
+        int[] sample = new int[sampleCount];
+        Random random = new Random(options.getSeed());
+        // Partial Fisher-Yates shuffle of the candidate positions.
+        int[] positions = new int[ids.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        for (int i = 0; i < sampleCount; i++) {
+            int j = i + random.nextInt(positions.length - i);
+            int swap = positions[i];
+            positions[i] = positions[j];
+            positions[j] = swap;
+            sample[i] = positions[i];
+        }
+
+        ProductQuantizer quantizer = new ProductQuantizer(dimensions,
+                                                          m,
+                                                          new double[CODEWORDS * dimensions]);
+        double[] data = store.getData();
+        for (int j = 0; j < m; j++) {
+            int start = quantizer.starts[j];
+            int width = quantizer.starts[j + 1] - start;
+            Cluster root = new Cluster(width, Math.min(CODEWORDS, sampleCount));
+            BuildOptions subOptions = new BuildOptions(options);
+            subOptions.setSeedingStrategy(new KMeansPlusPlusSeeding());
+            subOptions.setAssignmentAlgorithm(AssignmentAlgorithm.AUTO);
+            subOptions.setMaxIterations(TRAINING_ITERATIONS);
+            subOptions.setSeed(ACluster.deriveSeed(options.getSeed(), j));
+            // Codebook clusters are not part of the tree, so keep them out of its build metrics.
+            subOptions.setMetrics(NoOpMetrics.INSTANCE);
+            root.setOptions(subOptions);
+
+            VectStore subStore = root.getStore();
+            int firstId = subStore.reserve(sampleCount);
+            double[] subData = subStore.getData();
+            for (int i = 0; i < sampleCount; i++) {
+                int offset = store.offset(ids[sample[i]]) + start;
+                int subOffset = subStore.offset(firstId + i);
+                for (int l = 0; l < width; l++) {
+                    subData[subOffset + l] = data[offset + l] -
+                                             (centroids != null ?
+                                              centroids[sample[i]][start + l] :
+                                              0);
+                }
+            }
+            root.addIds(firstId, sampleCount);
+            new KMeansTree<>(root, 2).calculate();
+
+            int codeword = 0;
+            int codebook = start * CODEWORDS;
+            for (ACluster<Number> subCluster : root.subClusters) {
+                System.arraycopy(subCluster.getCentroidData(),
+                                 0,
+                                 quantizer.codebooks,
+                                 codebook + codeword++ * width,
+                                 width);
+            }
+            // Clusters that lost every member leave their codewords unused; point them at the
+            // first one so that every code decodes to a real codeword.
+            for (; codeword < CODEWORDS; codeword++) {
+                System.arraycopy(quantizer.codebooks,
+                                 codebook,
+                                 quantizer.codebooks,
+                                 codebook + codeword * width,
+                                 width);
+            }
+        }
+        return quantizer;
+    }
+
+    int getM() {
+        return m;
+    }
+
+    double[] getCodebooks() {
+        return codebooks;
+    }
+
+    /**
+     * Encode a vector, or its residual from a centroid.
+     *
+     * @param vector   array holding the vector.
+     * @param offset   offset of the vector in <code>vector</code>.
+     * @param centroid centroid to take the residual from, or <code>null</code>.
+     * @param codes    receives M codes.
+     */
+    void encode(double[] vector, int offset, double[] centroid, byte[] codes) {
+        for (int j = 0; j < m; j++) {
+            int start = starts[j];
+            int width = starts[j + 1] - start;
+            int codebook = start * CODEWORDS;
+            int nearest = 0;
+            double minDistance = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < CODEWORDS; c++) {
+                double distance = 0;
+                for (int l = 0; l < width; l++) {
+                    double value = vector[offset + start + l] -
+                                   (centroid != null ? centroid[start + l] : 0);
+                    double diff = value - codebooks[codebook + c * width + l];
+                    distance += diff * diff;
+                }
+                if (distance < minDistance) {
+                    minDistance = distance;
+                    nearest = c;
+                }
+            }
+            codes[j] = (byte) nearest;
+        }
+    }
+
+    /**
+     * Fill a lookup table with the squared distance from a query, or its residual from a
+     * centroid, to every codeword: entry <code>j * 256 + c</code> is the distance within
+     * subspace j to codeword c.
+     *
+     * @param query    query vector values.
+     * @param centroid centroid to take the residual from, or <code>null</code>.
+     * @param table    receives M * 256 distances.
+     */
+    void table(double[] query, double[] centroid, double[] table) {
+        for (int j = 0; j < m; j++) {
+            int start = starts[j];
+            int width = starts[j + 1] - start;
+            int codebook = start * CODEWORDS;
+            for (int c = 0; c < CODEWORDS; c++) {
+                double distance = 0;
+                for (int l = 0; l < width; l++) {
+                    double value = query[start + l] - (centroid != null ? centroid[start + l] : 0);
+                    double diff = value - codebooks[codebook + c * width + l];
+                    distance += diff * diff;
+                }
+                table[j * CODEWORDS + c] = distance;
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Read-only little-endian view of a byte sequence held in 1GB {@link ByteBuffer} segments, so
+ * that a {@link FlatIndex} can be larger than the 2GB a single buffer can address.  A long
+ * offset splits into a segment number and a position within the segment.  Values are read at
+ * offsets that are a multiple of their size, which divides the segment size, so no single
+ * value straddles two segments.
+ */
+final class SegmentedBuffer {
+    static final int SEGMENT_BITS = 30;
+    static final long SEGMENT_BYTES = 1L << SEGMENT_BITS;
+    private static final long SEGMENT_MASK = SEGMENT_BYTES - 1;
+
+    private final ByteBuffer[] segments;
+    private final long capacity;
+
+    private SegmentedBuffer(ByteBuffer[] segments, long capacity) {
+        this.segments = segments;
+        this.capacity = capacity;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Memory-map a whole file read-only, one segment at a time.
+     *
+     * @param channel file to map.
+     * @return the mapped file.
+     * @throws IOException if the file cannot be mapped.
+     */
+    static SegmentedBuffer map(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer[] segments = new ByteBuffer[segmentCount(size)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = i * SEGMENT_BYTES;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                      start,
+                                      Math.min(SEGMENT_BYTES, size - start));
+        }
+        return new SegmentedBuffer(segments, size);
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    byte get(long offset) {
+        return segments[(int) (offset >>> SEGMENT_BITS)].get((int) (offset & SEGMENT_MASK));
+    }
+
+    int getInt(long offset) {
+        return segments[(int) (offset >>> SEGMENT_BITS)].getInt((int) (offset & SEGMENT_MASK));
+    }
+
+    float getFloat(long offset) {
+        return segments[(int) (offset >>> SEGMENT_BITS)].getFloat((int) (offset & SEGMENT_MASK));
+    }
+
+    double getDouble(long offset) {
+        return segments[(int) (offset >>> SEGMENT_BITS)].getDouble((int) (offset & SEGMENT_MASK));
+    }
+
+    /**
+     * Read consecutive doubles into an array.
+     *
+     * @param offset       byte offset of the first double.
+     * @param values       array to fill.
+     * @param valuesOffset offset of the first double in <code>values</code>.
+     * @param length       number of doubles.
+     */
+    void getDoubles(long offset, double[] values, int valuesOffset, int length) {
+        int i = 0;
+        while (i < length) {
+            long position = offset + i * 8L;
+            ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+            int index = (int) (position & SEGMENT_MASK);
+            int end = Math.min(length, i + (segment.capacity() - index) / 8);
+            for (; i < end; i++, index += 8) {
+                values[valuesOffset + i] = segment.getDouble(index);
+            }
+        }
+    }
+
+    private static int segmentCount(long size) {
+        return (int) ((size + SEGMENT_BYTES - 1) >>> SEGMENT_BITS);
+    }
+
+    /**
+     * Channel that writes into heap segments of a known total size, for an index built in memory
+     * rather than saved to a file.
+     */
+    static final class Sink implements WritableByteChannel {
+        private final ByteBuffer[] segments;
+        private final long capacity;
+        private long position;
+
+        Sink(long capacity) {
+            this.segments = new ByteBuffer[segmentCount(capacity)];
+            this.capacity = capacity;
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = ByteBuffer.allocate(
+                        (int) Math.min(SEGMENT_BYTES, capacity - i * SEGMENT_BYTES));
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            int written = source.remaining();
+            while (source.hasRemaining()) {
+                if (position == capacity) {
+                    throw new IllegalStateException("Wrote more than " + capacity + " bytes");
+                }
+                ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+                int length = Math.min(segment.remaining(), source.remaining());
+                ByteBuffer part = source.duplicate();
+                part.limit(part.position() + length);
+                segment.put(part);
+                source.position(source.position() + length);
+                position += length;
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * Get a read-only view of what has been written.
+         *
+         * @return the written bytes.
+         */
+        SegmentedBuffer toBuffer() {
+            if (position != capacity) {
+                throw new IllegalStateException("Wrote " + position + " of " + capacity + " bytes");
+            }
+            return new SegmentedBuffer(segments, capacity);
+        }
+    }
+}
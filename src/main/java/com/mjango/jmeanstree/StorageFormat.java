@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+/**
+ * Precision in which a {@link FlatIndex} stores its leaf vectors.  Centroids are always stored as
+ * doubles.  These formats only apply to flat indexes: a {@link KMeansTree} keeps its vectors as
+ * doubles in its {@link VectStore} and scans them at full precision.
+ */
+public enum StorageFormat {
+    /**
+     * 8 bytes per value, exact.
+     */
+    FLOAT64(8),
+    /**
+     * 4 bytes per value.
+     */
+    FLOAT32(4),
+    /**
+     * 1 byte per value, scalar-quantized with a per-dimension minimum and scale:
+     * <code>value = min + scale * code</code>, with codes from 0 to 255.
+     */
+    INT8(1),
+    /**
+     * M bytes per vector, product-quantized: see
+     * {@link FlatIndex#write(KMeansTree, java.nio.file.Path, int, boolean, boolean)}.
+     */
+    PQ(0);
+
+    private final int bytes;
+
+    StorageFormat(int bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Get the number of bytes used to store one value.
+     *
+     * @return bytes per value, or 0 for {@link #PQ}, which encodes whole sub-vectors.
+     */
+    public int getBytes() {
+        return bytes;
+    }
+}
@@ -40,11 +40,35 @@ public class Vect implements IVect<Number> {
         System.arraycopy(data, 0, this.data, 0, getDimensions());
     }
 
+    private Vect(double[] data, int hashCode) {
+        this.data = data;
+        this.hashCode = hashCode;
+    }
+
+    /**
+     * Create a Vect that takes ownership of the given array instead of copying it.
+     *
+     * @param data vector values, which must not be modified afterwards.
+     * @return Vect backed by the given array.
+     */
+    static Vect wrap(double[] data) {
+        return new Vect(data, Arrays.hashCode(data));
+    }
+
     @Override
     public Number get(int index) {
         return data[index];
     }
 
+    /**
+     * Copy this vector's values into a new array.
+     *
+     * @return a new array holding this vector's values.
+     */
+    public double[] toArray() {
+        return Arrays.copyOf(data, data.length);
+    }
+
     @Override
     public int getDimensions() {
         return data.length;
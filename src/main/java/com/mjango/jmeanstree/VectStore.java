@@ -0,0 +1,265 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.Arrays;
+
+/**
+ * Contiguous backing store for the vectors of a K-Means tree.  All vectors are held row-major in a
+ * single primitive array with a stride of {@link #getDimensions()}, and are referred to by their
+ * integer id (the order in which they were added).
+ */
+public class VectStore {
+    private static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * Largest array length that JVMs reliably allocate.
+     */
+    private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+    private final int dimensions;
+    private volatile double[] data;
+    private int size;
+    private volatile long[] tombstones;
+    private volatile long[] compactable;
+    private int deletedCount;
+
+    public VectStore(int dimensions) {
+        this(dimensions, DEFAULT_CAPACITY);
+    }
+
+    public VectStore(int dimensions, int initialCapacity) {
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("Dimensions must be positive");
+        }
+        this.dimensions = dimensions;
+        this.data = new double[checkLength(Math.max(1, initialCapacity))];
+        this.size = 0;
+        this.tombstones = new long[0];
+        this.compactable = new long[0];
+        this.deletedCount = 0;
+    }
+
+    /**
+     * Append a vector to the store.
+     *
+     * @param values vector values, which must have exactly {@link #getDimensions()} elements.
+     * @return the id of the stored vector.
+     */
+    public synchronized int add(double[] values) {
+        if (values.length != dimensions) {
+            throw new IllegalArgumentException("Vect must have " + dimensions + " dimensions");
+        }
+        ensureCapacity(size + 1L);
+        System.arraycopy(values, 0, data, offset(size), dimensions);
+        return size++;
+    }
+
+    /**
+     * Reserve ids for a block of vectors that the caller writes directly into
+     * {@link #getData()}, starting at <code>offset(firstId)</code>.  The store must not grow
+     * until the block has been written, or the writes may land in a discarded array.
+     *
+     * @param count number of vectors.
+     * @return the first reserved id.
+     */
+    synchronized int reserve(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count must not be negative");
+        }
+        ensureCapacity((long) size + count);
+        int firstId = size;
+        size += count;
+        return firstId;
+    }
+
+    /**
+     * Give back ids reserved by {@link #reserve(int)} whose vectors could not be written.  If no
+     * vector has been added since, the ids are reused; otherwise they are marked deleted, so that
+     * their unwritten rows are never read as vectors.
+     *
+     * @param firstId first reserved id.
+     * @param count   number of reserved ids.
+     */
+    synchronized void release(int firstId, int count) {
+        if (size == firstId + count) {
+            size = firstId;
+            return;
+        }
+        for (int id = firstId; id < firstId + count; id++) {
+            delete(id);
+        }
+    }
+
+    /**
+     * Get the number of vectors in this store.
+     *
+     * @return number of vectors in this store.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Get the backing array.  The array is replaced when the store grows, so callers scanning it
+     * should read it once and index it with {@link #offset(int)}.
+     *
+     * @return the backing array.
+     */
+    public double[] getData() {
+        return data;
+    }
+
+    /**
+     * Get the offset of a vector in the backing array.
+     *
+     * @param id vector id.
+     * @return offset of the vector's first value.
+     */
+    public int offset(int id) {
+        long offset = (long) id * dimensions;
+        if (offset > MAX_LENGTH) {
+            throw new IndexOutOfBoundsException("Id: " + id + ", Size: " + size);
+        }
+        return (int) offset;
+    }
+
+    public double get(int id, int dimension) {
+        return data[offset(id) + dimension];
+    }
+
+    /**
+     * Copy a vector's values out of the store.
+     *
+     * @param id vector id.
+     * @return a new array holding the vector's values.
+     */
+    public double[] toArray(int id) {
+        double[] values = new double[dimensions];
+        System.arraycopy(data, offset(id), values, 0, dimensions);
+        return values;
+    }
+
+    /**
+     * Mark a vector as deleted.  Its values stay in the store, but tree searches skip it.
+     *
+     * @param id vector id.
+     * @return <code>true</code> if the vector was not already deleted.
+     */
+    public synchronized boolean delete(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Id: " + id + ", Size: " + size);
+        }
+        long[] words = tombstones;
+        int word = id >>> 6;
+        if (word >= words.length) {
+            words = Arrays.copyOf(words, Math.max(word + 1, words.length * 2));
+        }
+        if ((words[word] & (1L << id)) != 0) {
+            return false;
+        }
+        words[word] |= 1L << id;
+        tombstones = words;
+        deletedCount++;
+        return true;
+    }
+
+    public boolean isDeleted(int id) {
+        return isDeleted(tombstones, id);
+    }
+
+    /**
+     * Get the number of deleted vectors.
+     *
+     * @return number of deleted vectors.
+     */
+    public synchronized int getDeletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * Get the tombstone bitset, one bit per id.  The array is replaced when it grows, so callers
+     * checking many ids should read it once and test it with {@link #isDeleted(long[], int)}.
+     * Bits are otherwise set in place, so a caller holding the array also sees ids deleted after
+     * it was read.  Callers only use it to skip removed vectors, for which seeing a later removal
+     * early is harmless; none relies on the bits staying fixed.
+     *
+     * @return the tombstone bitset.
+     */
+    long[] getTombstones() {
+        return tombstones;
+    }
+
+    /**
+     * Mark a deleted vector as fully subtracted from every cluster holding it, so compaction may
+     * drop it from their member arrays.
+     *
+     * @param id vector id.
+     */
+    synchronized void markCompactable(int id) {
+        long[] words = compactable;
+        int word = id >>> 6;
+        if (word >= words.length) {
+            words = Arrays.copyOf(words, Math.max(word + 1, words.length * 2));
+        }
+        words[word] |= 1L << id;
+        compactable = words;
+    }
+
+    long[] getCompactable() {
+        return compactable;
+    }
+
+    static boolean isDeleted(long[] tombstones, int id) {
+        int word = id >>> 6;
+        return word < tombstones.length && (tombstones[word] & (1L << id)) != 0;
+    }
+
+    private void ensureCapacity(long capacity) {
+        if (checkLength(capacity) > data.length) {
+            long maxCapacity = MAX_LENGTH / dimensions;
+            long newCapacity = Math.max(capacity,
+                                        Math.min(maxCapacity, (data.length / dimensions) * 2L));
+            data = Arrays.copyOf(data, (int) (newCapacity * dimensions));
+        }
+    }
+
+    /**
+     * Get the backing array length needed for a number of vectors.
+     *
+     * @throws IllegalStateException if it exceeds the largest array the JVM can allocate.
+     */
+    private int checkLength(long capacity) {
+        long length = capacity * dimensions;
+        if (length > MAX_LENGTH) {
+            throw new IllegalStateException("A store of " + dimensions + "-dimensional vectors " +
+                                            "cannot hold more than " + MAX_LENGTH / dimensions +
+                                            " vectors, " + capacity + " requested");
+        }
+        return (int) length;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bulk loaders for the raw vector formats used by ANN benchmarks: fvecs, bvecs and ivecs (each
+ * row a little-endian int32 dimension followed by that many float32, uint8 or int32 values), and
+ * NumPy <code>.npy</code> files holding a C-ordered 2-D array of <code>&lt;f4</code> or
+ * <code>&lt;f8</code>.  Files are memory-mapped and converted straight into a
+ * {@link VectStore}'s backing array by fork-join tasks, with no per-row allocation.
+ */
+public final class VectorFiles {
+    private static final int GRAIN = 4096;
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+    private static final Pattern NPY_DESCR = Pattern.compile("'descr'\\s*:\\s*'([^']*)'");
+    private static final Pattern NPY_FORTRAN = Pattern.compile("'fortran_order'\\s*:\\s*(\\w+)");
+    private static final Pattern NPY_SHAPE = Pattern.compile("'shape'\\s*:\\s*\\(([^)]*)\\)");
+
+    private VectorFiles() {
+    }
+
+    /**
+     * Load a vector file into a tree's root cluster, in parallel on the tree's fork-join pool.
+     * The format is chosen by the file extension: <code>.fvecs</code>, <code>.bvecs</code> or
+     * <code>.npy</code>.  The tree must not be added to while loading.
+     *
+     * @param path vector file.
+     * @param tree tree to load into; its root must extend {@link com.mjango.jmeanstree.ACluster}.
+     * @return the number of vectors loaded.
+     * @throws IOException if the file cannot be read or does not match the tree's dimensions.
+     */
+    public static int load(Path path, KMeansTree<?> tree) throws IOException {
+        if (!(tree.getRoot() instanceof ACluster)) {
+            throw new IllegalArgumentException("Tree root must extend ACluster");
+        }
+        ACluster<?> root = (ACluster<?>) tree.getRoot();
+        VectStore store = root.getStore();
+        int before = store.size();
+        int firstId = load(path, store, root.getOptions().getForkJoinPool());
+        int count = store.size() - before;
+        tree.addIds(firstId, count);
+        return count;
+    }
+
+    /**
+     * Append the vectors of a file to a store, in parallel on the common pool.  Useful for query
+     * sets, which can then be searched with
+     * {@link KMeansTree#getNearestNeighbors(VectStore, int, int, int[], double[])}.  The store
+     * must not be added to while loading.
+     *
+     * @param path  vector file.
+     * @param store store to append to.
+     * @return the id of the first vector loaded.
+     * @throws IOException if the file cannot be read or does not match the store's dimensions.
+     */
+    public static int load(Path path, VectStore store) throws IOException {
+        return load(path, store, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Read an ivecs file, such as the ground-truth neighbor ids of a benchmark query set.
+     *
+     * @param path ivecs file.
+     * @return one array of ids per row.
+     * @throws IOException if the file cannot be read or is malformed.
+     */
+    public static int[][] loadIvecs(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Layout layout = vecsLayout(channel, 4);
+            if (layout.rows > Integer.MAX_VALUE) {
+                throw new IOException("Too many rows: " + layout.rows);
+            }
+            int[][] rows = new int[(int) layout.rows][layout.dimensions];
+            for (long start = 0; start < layout.rows; start += layout.segmentRows) {
+                int count = (int) Math.min(layout.segmentRows, layout.rows - start);
+                ByteBuffer buffer = layout.map(channel, start, count);
+                for (int r = 0; r < count; r++) {
+                    int base = r * layout.rowBytes;
+                    layout.checkRow(buffer, base, start + r);
+                    for (int j = 0; j < layout.dimensions; j++) {
+                        rows[(int) start + r][j] = buffer.getInt(base + 4 + 4 * j);
+                    }
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Read the vector dimensions of a file without loading it, e.g. to size the
+     * {@link VectStore} or root cluster it will be loaded into.
+     *
+     * @param path vector file.
+     * @return the number of dimensions of each vector.
+     * @throws IOException if the file cannot be read or is malformed.
+     */
+    public static int getDimensions(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return layout(path, channel).dimensions;
+        }
+    }
+
+    private static int load(Path path, VectStore store, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Layout layout = layout(path, channel);
+            if (layout.dimensions != store.getDimensions()) {
+                throw new IOException("File has " + layout.dimensions + " dimensions, store has " +
+                                      store.getDimensions());
+            }
+            if (layout.rows > Integer.MAX_VALUE) {
+                throw new IOException("Too many rows: " + layout.rows);
+            }
+
+            int firstId = store.reserve((int) layout.rows);
+            double[] data = store.getData();
+            boolean loaded = false;
+            try {
+                for (long start = 0; start < layout.rows; start += layout.segmentRows) {
+                    int count = (int) Math.min(layout.segmentRows, layout.rows - start);
+                    ByteBuffer buffer = layout.map(channel, start, count);
+                    pool.invoke(new ConvertTask(layout,
+                                                buffer,
+                                                0,
+                                                count,
+                                                start,
+                                                data,
+                                                store.offset(firstId + (int) start)));
+                }
+                loaded = true;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                // A bad row fails the load after ids were reserved for every row; give them back
+                // rather than leave half-written vectors in the store.
+                if (!loaded) {
+                    store.release(firstId, (int) layout.rows);
+                }
+            }
+            return firstId;
+        }
+    }
+
+    private static Layout layout(Path path, FileChannel channel) throws IOException {
+        String name = path.getFileName().toString().toLowerCase();
+        if (name.endsWith(".fvecs")) {
+            return vecsLayout(channel, 4);
+        } else if (name.endsWith(".bvecs")) {
+            return vecsLayout(channel, 1);
+        } else if (name.endsWith(".npy")) {
+            return npyLayout(channel);
+        }
+        throw new IOException("Unknown vector file format: " + path);
+    }
+
+    private static Layout vecsLayout(FileChannel channel, int valueBytes) throws IOException {
+        if (channel.size() < 4) {
+            throw new IOException("Empty vector file");
+        }
+        ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        int dimensions = header.getInt(0);
+        if (dimensions <= 0) {
+            throw new IOException("Bad dimension " + dimensions);
+        }
+        int rowBytes = 4 + dimensions * valueBytes;
+        if (channel.size() % rowBytes != 0) {
+            throw new IOException("File size is not a multiple of the " + rowBytes + "-byte row");
+        }
+        return new Layout(0, channel.size() / rowBytes, dimensions, rowBytes, 4, valueBytes, true);
+    }
+
+    private static Layout npyLayout(FileChannel channel) throws IOException {
+        ByteBuffer preamble = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(preamble, 0);
+        if (preamble.get(0) != (byte) 0x93 ||
+            !"NUMPY".equals(new String(preamble.array(), 1, 5, StandardCharsets.US_ASCII))) {
+            throw new IOException("Not a .npy file");
+        }
+        int major = preamble.get(6);
+        int headerLength;
+        int headerStart;
+        if (major == 1) {
+            headerLength = preamble.getShort(8) & 0xFFFF;
+            headerStart = 10;
+        } else {
+            headerLength = preamble.getInt(8);
+            headerStart = 12;
+        }
+        ByteBuffer headerBuffer = ByteBuffer.allocate(headerLength);
+        channel.read(headerBuffer, headerStart);
+        String header = new String(headerBuffer.array(), StandardCharsets.ISO_8859_1);
+
+        String descr = group(NPY_DESCR, header);
+        int valueBytes;
+        if ("<f4".equals(descr)) {
+            valueBytes = 4;
+        } else if ("<f8".equals(descr)) {
+            valueBytes = 8;
+        } else {
+            throw new IOException("Unsupported .npy dtype " + descr);
+        }
+        if (!"False".equals(group(NPY_FORTRAN, header))) {
+            throw new IOException("Fortran-ordered .npy files are not supported");
+        }
+        String[] shape = group(NPY_SHAPE, header).split(",");
+        if (shape.length < 2 || shape[1].trim().isEmpty() ||
+            (shape.length > 2 && !shape[2].trim().isEmpty())) {
+            throw new IOException("Expected a 2-D array, got shape (" + group(NPY_SHAPE, header) +
+                                  ")");
+        }
+        long rows = Long.parseLong(shape[0].trim());
+        int dimensions = Integer.parseInt(shape[1].trim());
+        long dataStart = headerStart + headerLength;
+        if (channel.size() < dataStart + rows * dimensions * valueBytes) {
+            throw new IOException("Truncated .npy file");
+        }
+        return new Layout(dataStart,
+                          rows,
+                          dimensions,
+                          dimensions * valueBytes,
+                          0,
+                          valueBytes,
+                          false);
+    }
+
+    private static String group(Pattern pattern, String header) throws IOException {
+        Matcher matcher = pattern.matcher(header);
+        if (!matcher.find()) {
+            throw new IOException("Malformed .npy header: " + header);
+        }
+        return matcher.group(1);
+    }
+
+    /**
+     * Where a file's rows are and how their values are encoded.
+     */
+    private static class Layout {
+        final long dataStart;
+        final long rows;
+        final int dimensions;
+        final int rowBytes;
+        final int valueStart;
+        final int valueBytes;
+        final boolean prefixed;
+        final long segmentRows;
+
+        Layout(long dataStart,
+               long rows,
+               int dimensions,
+               int rowBytes,
+               int valueStart,
+               int valueBytes,
+               boolean prefixed) {
+            this.dataStart = dataStart;
+            this.rows = rows;
+            this.dimensions = dimensions;
+            this.rowBytes = rowBytes;
+            this.valueStart = valueStart;
+            this.valueBytes = valueBytes;
+            this.prefixed = prefixed;
+            this.segmentRows = Math.max(1, MAX_SEGMENT_BYTES / rowBytes);
+        }
+
+        /**
+         * Map a run of rows; files over 2GB are mapped one segment at a time.
+         */
+        ByteBuffer map(FileChannel channel, long firstRow, int count) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY,
+                               dataStart + firstRow * rowBytes,
+                               (long) count * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void checkRow(ByteBuffer buffer, int base, long row) throws IOException {
+            if (prefixed && buffer.getInt(base) != dimensions) {
+                throw new IOException("Row " + row + " has dimension " + buffer.getInt(base) +
+                                      ", expected " + dimensions);
+            }
+        }
+    }
+
+    /**
+     * Converts a range of mapped rows into the store's backing array.
+     */
+    private static class ConvertTask extends RecursiveAction {
+        private final Layout layout;
+        private final ByteBuffer buffer;
+        private final int from;
+        private final int to;
+        private final long firstRow;
+        private final double[] data;
+        private final int dataOffset;
+
+        ConvertTask(Layout layout,
+                    ByteBuffer buffer,
+                    int from,
+                    int to,
+                    long firstRow,
+                    double[] data,
+                    int dataOffset) {
+            this.layout = layout;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.firstRow = firstRow;
+            this.data = data;
+            this.dataOffset = dataOffset;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > GRAIN) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ConvertTask(layout, buffer, from, middle, firstRow, data, dataOffset),
+                          new ConvertTask(layout, buffer, middle, to, firstRow, data, dataOffset));
+                return;
+            }
+            int dimensions = layout.dimensions;
+            for (int r = from; r < to; r++) {
+                int base = r * layout.rowBytes;
+                try {
+                    layout.checkRow(buffer, base, firstRow + r);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                int values = base + layout.valueStart;
+                int offset = dataOffset + r * dimensions;
+                if (layout.valueBytes == 1) {
+                    for (int j = 0; j < dimensions; j++) {
+                        data[offset + j] = buffer.get(values + j) & 0xFF;
+                    }
+                } else if (layout.valueBytes == 4) {
+                    for (int j = 0; j < dimensions; j++) {
+                        data[offset + j] = buffer.getFloat(values + 4 * j);
+                    }
+                } else {
+                    for (int j = 0; j < dimensions; j++) {
+                        data[offset + j] = buffer.getDouble(values + 8 * j);
+                    }
+                }
+            }
+        }
+    }
+}
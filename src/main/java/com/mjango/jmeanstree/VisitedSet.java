@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.Arrays;
+
+/**
+ * Set of store ids that a query has already compared, for searches over several trees.  The
+ * bits stay allocated between queries, and only the words a query touched are cleared after it,
+ * so a set reused by one thread costs nothing to reset however large the {@link VectStore} is.
+ * Not thread-safe.
+ */
+final class VisitedSet {
+    private long[] words;
+    private int[] touched;
+    private int touchedCount;
+
+    VisitedSet() {
+        words = new long[64];
+        touched = new int[64];
+        touchedCount = 0;
+    }
+
+    /**
+     * Add an id to the set.
+     *
+     * @param id id of the vector in the store.
+     * @return <code>true</code> if the id was not already in the set.
+     */
+    boolean add(int id) {
+        int index = id >>> 6;
+        if (index >= words.length) {
+            words = Arrays.copyOf(words, Math.max(index + 1, words.length * 2));
+        }
+        long bit = 1L << id;
+        long word = words[index];
+        if ((word & bit) != 0) {
+            return false;
+        }
+        if (word == 0) {
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, touchedCount * 2);
+            }
+            touched[touchedCount++] = index;
+        }
+        words[index] = word | bit;
+        return true;
+    }
+
+    /**
+     * Remove every id added since the last call.
+     */
+    void clear() {
+        for (int i = 0; i < touchedCount; i++) {
+            words[touched[i]] = 0;
+        }
+        touchedCount = 0;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree.eval;
+
+import com.mjango.jmeanstree.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the recall and speed of approximate nearest-neighbor queries against exact ground
+ * truth, and writes one CSV row per operating point.  For each forest size a forest is built
+ * over the vectors of an unbuilt template tree and timed; each comparison budget is then swept
+ * over the query set.  A forest size of 1 builds and measures the template itself, so that a
+ * single tree keeps the template's own seeding.  Queries run one at a time on the calling
+ * thread, after a warm-up pass, so latencies are single-query latencies.
+ * <p/>
+ * Options, each followed by a value:
+ * <pre>
+ * --base FILE         base vectors (.fvecs, .bvecs or .npy); uniform random vectors if absent
+ * --queries FILE      query vectors; uniform random vectors if absent
+ * --groundtruth FILE  ivecs ground truth; computed by brute force if absent
+ * --n N               number of random base vectors (default 100000)
+ * --query-count N     number of random queries (default 1000)
+ * --dims N            dimensions of random vectors (default 32)
+ * --k N               clusters per node (default 8)
+ * --depth N           maximum tree depth (default 4)
+ * --trees LIST        comma-separated forest sizes (default 1)
+ * --checks LIST       comma-separated comparison budgets, 0 for the greedy descent only
+ *                     (default 0,256,1024,4096)
+ * --neighbors N       neighbors per query, at least 10 (default 10)
+ * --seed N            random seed (default 42)
+ * </pre>
+ */
+public class Evaluation {
+    private static final String HEADER =
+            "trees,max_checks,recall_at_1,recall_at_10,qps,p50_us,p99_us,mean_comparisons,build_ms";
+
+    private final KMeansTree<Number> template;
+    private final VectStore queries;
+    private final int[][] truth;
+    private final int neighbors;
+    private final PrintStream out;
+    private double templateBuildMillis = -1;
+
+    /**
+     * Create an evaluation.
+     *
+     * @param template  unbuilt tree holding the base vectors, whose options the forests copy.
+     * @param queries   query vectors.
+     * @param truth     ids of each query's true nearest neighbors in the template's store,
+     *                  nearest first.
+     * @param neighbors neighbors per query, at least 10.
+     * @param out       stream to write the CSV to.
+     */
+    public Evaluation(KMeansTree<Number> template,
+                      VectStore queries,
+                      int[][] truth,
+                      int neighbors,
+                      PrintStream out) {
+        if (truth.length != queries.size()) {
+            throw new IllegalArgumentException("Ground truth has " + truth.length +
+                                               " rows, expected " + queries.size());
+        }
+        if (neighbors < 10) {
+            throw new IllegalArgumentException("Neighbors must be at least 10");
+        }
+        this.template = template;
+        this.queries = queries;
+        this.truth = truth;
+        this.neighbors = neighbors;
+        this.out = out;
+    }
+
+    /**
+     * Build a forest of each size and sweep the comparison budgets over it, writing the CSV
+     * header and one row per operating point.
+     *
+     * @param treeCounts forest sizes.
+     * @param checks     comparison budgets.
+     */
+    public void run(int[] treeCounts, int[] checks) {
+        out.println(HEADER);
+        Vect[] queryVects = new Vect[queries.size()];
+        for (int i = 0; i < queryVects.length; i++) {
+            queryVects[i] = new Vect(queries.toArray(i));
+        }
+        for (int treeCount : treeCounts) {
+            Searcher searcher;
+            double buildMillis;
+            if (treeCount == 1) {
+                if (templateBuildMillis < 0) {
+                    long start = System.nanoTime();
+                    template.calculate();
+                    templateBuildMillis = (System.nanoTime() - start) / 1e6;
+                }
+                searcher = new Searcher() {
+                    @Override
+                    public void search(Vect query,
+                                       int maxChecks,
+                                       NeighborList results,
+                                       int[] comparisonCount) {
+                        template.getNearestNeighbors(query,
+                                                     neighbors,
+                                                     maxChecks,
+                                                     results,
+                                                     comparisonCount);
+                    }
+                };
+                buildMillis = templateBuildMillis;
+            } else {
+                final KMeansForest<Number> forest = new KMeansForest<>(template, treeCount);
+                long start = System.nanoTime();
+                forest.calculate();
+                buildMillis = (System.nanoTime() - start) / 1e6;
+                searcher = new Searcher() {
+                    @Override
+                    public void search(Vect query,
+                                       int maxChecks,
+                                       NeighborList results,
+                                       int[] comparisonCount) {
+                        forest.getNearestNeighbors(query,
+                                                   neighbors,
+                                                   maxChecks,
+                                                   results,
+                                                   comparisonCount);
+                    }
+                };
+            }
+            for (int maxChecks : checks) {
+                measure(searcher, queryVects, maxChecks, treeCount, buildMillis);
+            }
+        }
+    }
+
+    private void measure(Searcher searcher,
+                         Vect[] queryVects,
+                         int maxChecks,
+                         int treeCount,
+                         double buildMillis) {
+        NeighborList results = new NeighborList(neighbors);
+        int[] comparisonCount = new int[]{0};
+        for (Vect query : queryVects) {
+            searcher.search(query, maxChecks, results, comparisonCount);
+        }
+
+        comparisonCount[0] = 0;
+        long[] latencies = new long[queryVects.length];
+        long totalNanos = 0;
+        long comparisons = 0;
+        double hitsAt1 = 0;
+        double hitsAt10 = 0;
+        for (int q = 0; q < queryVects.length; q++) {
+            long start = System.nanoTime();
+            searcher.search(queryVects[q], maxChecks, results, comparisonCount);
+            latencies[q] = System.nanoTime() - start;
+            totalNanos += latencies[q];
+            comparisons += comparisonCount[0];
+            comparisonCount[0] = 0;
+            hitsAt1 += recall(truth[q], results, 1);
+            hitsAt10 += recall(truth[q], results, 10);
+        }
+        Arrays.sort(latencies);
+
+        int count = queryVects.length;
+        out.println(String.format(Locale.ROOT,
+                                  "%d,%d,%.4f,%.4f,%.1f,%.1f,%.1f,%.1f,%.1f",
+                                  treeCount,
+                                  maxChecks,
+                                  hitsAt1 / count,
+                                  hitsAt10 / count,
+                                  count * 1e9 / totalNanos,
+                                  percentile(latencies, 0.50) / 1e3,
+                                  percentile(latencies, 0.99) / 1e3,
+                                  (double) comparisons / count,
+                                  buildMillis));
+        out.flush();
+    }
+
+    /**
+     * Searches a built tree or forest for a query's neighbors.
+     */
+    private interface Searcher {
+        void search(Vect query, int maxChecks, NeighborList results, int[] comparisonCount);
+    }
+
+    /**
+     * Get the fraction of a query's true top-N neighbors found among the top N results.
+     */
+    private static double recall(int[] truth, NeighborList results, int n) {
+        int limit = Math.min(n, truth.length);
+        if (limit == 0) {
+            return 1;
+        }
+        int found = 0;
+        for (int i = 0; i < limit; i++) {
+            for (int rank = 0; rank < Math.min(n, results.size()); rank++) {
+                if (results.getId(rank) == truth[i]) {
+                    found++;
+                    break;
+                }
+            }
+        }
+        return (double) found / limit;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parse(args);
+        long seed = Long.parseLong(get(options, "seed", "42"));
+        int neighbors = Integer.parseInt(get(options, "neighbors", "10"));
+
+        int dimensions = options.containsKey("base") ?
+                VectorFiles.getDimensions(Paths.get(options.get("base"))) :
+                Integer.parseInt(get(options, "dims", "32"));
+        KMeansTree<Number> template = KMeansTree.builder(
+                (ICluster<Number>) new Cluster(dimensions,
+                                               Integer.parseInt(get(options, "k", "8"))))
+                .maxDepth(Integer.parseInt(get(options, "depth", "4")))
+                .forkJoinBuild(true)
+                .seed(seed)
+                .build();
+        Random random = new Random(seed);
+        if (options.containsKey("base")) {
+            VectorFiles.load(Paths.get(options.get("base")), template);
+        } else {
+            int n = Integer.parseInt(get(options, "n", "100000"));
+            for (int i = 0; i < n; i++) {
+                template.add(new Vect(randomValues(dimensions, random)));
+            }
+        }
+
+        VectStore queries = new VectStore(dimensions);
+        if (options.containsKey("queries")) {
+            VectorFiles.load(Paths.get(options.get("queries")), queries);
+        } else {
+            int n = Integer.parseInt(get(options, "query-count", "1000"));
+            for (int i = 0; i < n; i++) {
+                queries.add(randomValues(dimensions, random));
+            }
+        }
+        int[][] truth = options.containsKey("groundtruth") ?
+                VectorFiles.loadIvecs(Paths.get(options.get("groundtruth"))) :
+                GroundTruth.compute(((ACluster<Number>) template.getRoot()).getStore(),
+                                    queries,
+                                    neighbors);
+
+        new Evaluation(template, queries, truth, neighbors, System.out)
+                .run(parseList(get(options, "trees", "1")),
+                     parseList(get(options, "checks", "0,256,1024,4096")));
+    }
+
+    private static double[] randomValues(int dimensions, Random random) {
+        double[] values = new double[dimensions];
+        for (int j = 0; j < dimensions; j++) {
+            values[j] = random.nextDouble();
+        }
+        return values;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static String get(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static int[] parseList(String value) {
+        String[] parts = value.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree.simd;
+
+import com.mjango.jmeanstree.IDistanceKernel;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link com.mjango.jmeanstree.IDistanceKernel} built on the JDK Vector API, using the widest
+ * species the CPU prefers.  This class is only compiled on Java 16+, and only loads when the JVM
+ * is started with <code>--add-modules jdk.incubator.vector</code>; see
+ * {@link com.mjango.jmeanstree.DistanceKernels}.
+ */
+public class VectorDistanceKernel implements IDistanceKernel {
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector sum = DoubleVector.zero(DOUBLES);
+        int bound = DOUBLES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += DOUBLES.length()) {
+            DoubleVector diff = DoubleVector.fromArray(DOUBLES, a, aOffset + i)
+                                            .sub(DoubleVector.fromArray(DOUBLES, b, bOffset + i));
+            sum = diff.fma(diff, sum);
+        }
+        double distance = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double diff = a[aOffset + i] - b[bOffset + i];
+            distance += diff * diff;
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AssignmentEngineTest {
+    private static final int N = 5000;
+    private static final int DIMENSIONS = 12;
+    private static final int K = 8;
+
+    @Test
+    public void acceleratedEnginesMatchLloyd() {
+        KMeansTree<Number> lloyd = build(AssignmentAlgorithm.LLOYD);
+        int[] expected = leafOrdinals(lloyd);
+        for (AssignmentAlgorithm algorithm : new AssignmentAlgorithm[]{AssignmentAlgorithm.HAMERLY,
+                                                                       AssignmentAlgorithm.ELKAN}) {
+            KMeansTree<Number> tree = build(algorithm);
+            assertArrayEquals(algorithm.toString(), expected, leafOrdinals(tree));
+            assertEquals(algorithm.toString(),
+                         ((Cluster) lloyd.getRoot()).getIterations(),
+                         ((Cluster) tree.getRoot()).getIterations());
+        }
+    }
+
+    @Test
+    public void acceleratedEnginesSkipDistances() {
+        for (AssignmentAlgorithm algorithm : new AssignmentAlgorithm[]{AssignmentAlgorithm.HAMERLY,
+                                                                       AssignmentAlgorithm.ELKAN}) {
+            Cluster root = (Cluster) build(algorithm).getRoot();
+            assertTrue(root.getSkippedDistanceCount() > 0);
+        }
+    }
+
+    private static KMeansTree<Number> build(AssignmentAlgorithm algorithm) {
+        KMeansTree.Builder<Number> builder = KMeansTree.builder(new Cluster(DIMENSIONS, K))
+                .maxDepth(3)
+                .assignment(algorithm)
+                .seed(11);
+        return TestVectors.build(builder, TestVectors.blobs(new Random(11), N, DIMENSIONS, 2 * K));
+    }
+
+    /**
+     * Number the leaves depth first and record which leaf each vector ended up in.
+     */
+    private static int[] leafOrdinals(KMeansTree<Number> tree) {
+        int[] ordinals = new int[N];
+        collect((Cluster) tree.getRoot(), ordinals, new int[]{0});
+        return ordinals;
+    }
+
+    private static void collect(Cluster cluster, int[] ordinals, int[] next) {
+        List<Cluster> subClusters = cluster.getSubClusters();
+        if (subClusters.isEmpty()) {
+            int ordinal = next[0]++;
+            for (int i = 0; i < cluster.size(); i++) {
+                ordinals[cluster.getId(i)] = ordinal;
+            }
+            return;
+        }
+        for (Cluster subCluster : subClusters) {
+            collect(subCluster, ordinals, next);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchSearchTest {
+    private static final int N = 10000;
+    private static final int DIMENSIONS = 8;
+    private static final int QUERIES = 500;
+    private static final int NEIGHBORS = 10;
+
+    private static KMeansTree<Number> tree;
+    private static VectStore queries;
+
+    @BeforeClass
+    public static void build() {
+        Random random = new Random(14);
+        KMeansTree.Builder<Number> builder = KMeansTree.builder(new Cluster(DIMENSIONS, 6))
+                .maxDepth(4)
+                .seed(14);
+        tree = TestVectors.build(builder, TestVectors.uniform(random, N, DIMENSIONS));
+        queries = new VectStore(DIMENSIONS);
+        for (double[] query : TestVectors.uniform(random, QUERIES, DIMENSIONS)) {
+            queries.add(query);
+        }
+    }
+
+    @Test
+    public void batchMatchesSequentialSearch() {
+        for (int maxChecks : new int[]{0, 256, Integer.MAX_VALUE}) {
+            int[] ids = new int[QUERIES * NEIGHBORS];
+            double[] distances = new double[QUERIES * NEIGHBORS];
+            long batchCount =
+                    tree.getNearestNeighbors(queries, NEIGHBORS, maxChecks, ids, distances);
+            long sequentialCount = 0;
+            NeighborList results = null;
+            for (int q = 0; q < QUERIES; q++) {
+                int[] compareCount = new int[]{0};
+                results = tree.getNearestNeighbors(new Vect(queries.toArray(q)),
+                                                   NEIGHBORS,
+                                                   maxChecks,
+                                                   results,
+                                                   compareCount);
+                sequentialCount += compareCount[0];
+                for (int i = 0; i < NEIGHBORS; i++) {
+                    int offset = q * NEIGHBORS + i;
+                    if (i < results.size()) {
+                        assertEquals(results.getId(i), ids[offset]);
+                        assertEquals(results.getDistance(i), distances[offset], 0);
+                    } else {
+                        assertEquals(-1, ids[offset]);
+                        assertEquals(Double.POSITIVE_INFINITY, distances[offset], 0);
+                    }
+                }
+            }
+            assertEquals(sequentialCount, batchCount);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BestBinFirstTest {
+    private static final int N = 10000;
+    private static final int DIMENSIONS = 8;
+    private static final int QUERIES = 200;
+
+    private static KMeansTree<Number> tree;
+    private static double[][] queries;
+    private static int[] truth;
+
+    @BeforeClass
+    public static void build() {
+        Random random = new Random(6);
+        tree = TestVectors.build(KMeansTree.builder(new Cluster(DIMENSIONS, 6)).maxDepth(4).seed(6),
+                                 TestVectors.uniform(random, N, DIMENSIONS));
+        queries = TestVectors.uniform(random, QUERIES, DIMENSIONS);
+        truth = new int[QUERIES];
+        VectStore store = ((Cluster) tree.getRoot()).getStore();
+        for (int q = 0; q < QUERIES; q++) {
+            truth[q] = TestVectors.nearest(store, queries[q], 1)[0];
+        }
+    }
+
+    @Test
+    public void unlimitedBudgetIsExact() {
+        VectStore store = ((Cluster) tree.getRoot()).getStore();
+        for (int q = 0; q < QUERIES; q++) {
+            IVect<Number> nearest = tree.getNearestNeighbor(new Vect(queries[q]),
+                                                            Integer.MAX_VALUE,
+                                                            new int[]{0});
+            assertArrayEquals(store.toArray(truth[q]), ((Vect) nearest).toArray(), 0);
+        }
+    }
+
+    @Test
+    public void recallGrowsWithTheBudget() {
+        int[] lowCount = new int[]{0};
+        int[] highCount = new int[]{0};
+        double low = recall(64, lowCount);
+        double high = recall(1024, highCount);
+        assertTrue(low <= high);
+        assertTrue(high >= 0.95);
+        assertTrue(lowCount[0] < highCount[0]);
+        assertTrue(highCount[0] < (long) N * QUERIES);
+    }
+
+    /**
+     * Get the fraction of queries whose true nearest neighbor a budgeted search finds.
+     */
+    private static double recall(int maxChecks, int[] compareCount) {
+        VectStore store = ((Cluster) tree.getRoot()).getStore();
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            IVect<Number> nearest = tree.getNearestNeighbor(new Vect(queries[q]),
+                                                            maxChecks,
+                                                            compareCount);
+            double[] values = ((Vect) nearest).toArray();
+            if (TestVectors.squaredDistance(values, queries[q]) ==
+                TestVectors.squaredDistance(store.toArray(truth[q]), queries[q])) {
+                found++;
+            }
+        }
+        return (double) found / QUERIES;
+    }
+}
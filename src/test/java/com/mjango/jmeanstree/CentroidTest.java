@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class CentroidTest {
+    private static final int N = 5000;
+    private static final int DIMENSIONS = 6;
+    private static final int K = 5;
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void runningSumsMatchRecomputedMeans() {
+        double[][] vectors = TestVectors.blobs(new Random(8), N, DIMENSIONS, 2 * K);
+        KMeansTree<Number> tree = TestVectors.build(builder(), vectors);
+        assertMeans((Cluster) tree.getRoot());
+    }
+
+    @Test
+    public void addMovesTheCentroid() {
+        Random random = new Random(8);
+        KMeansTree<Number> tree = TestVectors.build(builder(),
+                                                    TestVectors.uniform(random, N, DIMENSIONS));
+        Cluster root = (Cluster) tree.getRoot();
+        // Materialize the centroid, so that each add has to move it.
+        root.getCentroid();
+        for (int i = 0; i < 100; i++) {
+            tree.add(new Vect(TestVectors.randomValues(random, DIMENSIONS)));
+            assertArrayEquals(mean(root), root.getCentroid().toArray(), DELTA);
+        }
+    }
+
+    private static KMeansTree.Builder<Number> builder() {
+        return KMeansTree.builder(new Cluster(DIMENSIONS, K)).maxDepth(3).seed(8);
+    }
+
+    /**
+     * Check every cluster's centroid against the mean of its members.
+     */
+    private static void assertMeans(Cluster cluster) {
+        assertArrayEquals(mean(cluster), cluster.getCentroid().toArray(), DELTA);
+        for (Cluster subCluster : cluster.getSubClusters()) {
+            assertMeans(subCluster);
+        }
+    }
+
+    private static double[] mean(Cluster cluster) {
+        double[] mean = new double[DIMENSIONS];
+        for (IVect<Number> vect : cluster) {
+            for (int j = 0; j < DIMENSIONS; j++) {
+                mean[j] += vect.get(j).doubleValue();
+            }
+        }
+        for (int j = 0; j < DIMENSIONS; j++) {
+            mean[j] /= cluster.size();
+        }
+        return mean;
+    }
+}
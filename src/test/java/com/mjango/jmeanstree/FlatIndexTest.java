@@ -0,0 +1,172 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlatIndexTest {
+    private static final int N = 6000;
+    private static final int DIMENSIONS = 16;
+    private static final int QUERIES = 100;
+    private static final int NEIGHBORS = 10;
+
+    private static KMeansTree<Number> tree;
+    private static double[][] queries;
+    private static int[][] truth;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void build() {
+        Random random = new Random(3);
+        KMeansTree.Builder<Number> builder = KMeansTree.builder(new Cluster(DIMENSIONS, 6))
+                .maxDepth(4)
+                .seed(3);
+        tree = TestVectors.build(builder, TestVectors.uniform(random, N, DIMENSIONS));
+        queries = TestVectors.uniform(random, QUERIES, DIMENSIONS);
+        truth = new int[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            truth[q] = TestVectors.nearest(((Cluster) tree.getRoot()).getStore(),
+                                           queries[q],
+                                           NEIGHBORS);
+        }
+    }
+
+    @Test
+    public void float64MatchesTree() throws IOException {
+        File file = folder.newFile();
+        FlatIndex.write(tree, file.toPath());
+        FlatIndex index = FlatIndex.load(file.toPath());
+        assertEquals(StorageFormat.FLOAT64, index.getFormat());
+        assertFalse(index.hasExactVectors());
+        assertEquals(N, index.getVectorCount());
+        assertEquals(DIMENSIONS, index.getDimensions());
+
+        for (int q = 0; q < QUERIES; q++) {
+            double[] query = queries[q];
+            int[] treeCount = new int[]{0};
+            int[] indexCount = new int[]{0};
+            NeighborList expected =
+                    tree.getNearestNeighbors(new Vect(query), NEIGHBORS, 300, null, treeCount);
+            NeighborList actual =
+                    index.getNearestNeighbors(query, NEIGHBORS, 300, null, indexCount);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.getId(i), actual.getId(i));
+                assertEquals(expected.getDistance(i), actual.getDistance(i), 0);
+            }
+            assertEquals(treeCount[0], indexCount[0]);
+        }
+    }
+
+    @Test
+    public void float32RoundTrip() throws IOException {
+        FlatIndex index = roundTrip(StorageFormat.FLOAT32, false);
+        assertTrue(recall(index, 0) >= 0.99);
+    }
+
+    @Test
+    public void int8RoundTrip() throws IOException {
+        FlatIndex index = roundTrip(StorageFormat.INT8, false);
+        assertTrue(recall(index, 0) >= 0.8);
+    }
+
+
+    @Test
+    public void pqRoundTrip() throws IOException {
+        File file = folder.newFile();
+        FlatIndex.write(tree, file.toPath(), DIMENSIONS / 2, true, false);
+        FlatIndex index = FlatIndex.load(file.toPath());
+        assertEquals(StorageFormat.PQ, index.getFormat());
+        assertEquals(N, index.getVectorCount());
+        assertTrue(recall(index, 0) >= 0.3);
+    }
+
+    @Test
+    public void exactVectorsRerankToTruth() throws IOException {
+        for (StorageFormat format : new StorageFormat[]{StorageFormat.FLOAT32,
+                                                        StorageFormat.INT8}) {
+            assertEquals(1.0, recall(roundTrip(format, true), N), 0);
+        }
+    }
+
+
+    @Test
+    public void pqRerankRecoversRecall() throws IOException {
+        File file = folder.newFile();
+        FlatIndex.write(tree, file.toPath(), DIMENSIONS / 2, false, true);
+        FlatIndex index = FlatIndex.load(file.toPath());
+        assertTrue(index.hasExactVectors());
+        double codesOnly = recall(index, 0);
+        double reranked = recall(index, 10 * NEIGHBORS);
+        assertTrue(reranked > codesOnly);
+        assertTrue(reranked >= 0.9);
+        assertEquals(1.0, recall(index, N), 0);
+    }
+
+    private FlatIndex roundTrip(StorageFormat format, boolean exact) throws IOException {
+        File file = folder.newFile();
+        FlatIndex.write(tree, file.toPath(), format, exact);
+        FlatIndex index = FlatIndex.load(file.toPath());
+        assertEquals(format, index.getFormat());
+        assertEquals(exact, index.hasExactVectors());
+        assertEquals(N, index.getVectorCount());
+        return index;
+    }
+
+    /**
+     * Get the recall at 10 of an exhaustive search of an index.
+     */
+    private static double recall(FlatIndex index, int rerank) {
+        int found = 0;
+        NeighborList results = null;
+        for (int q = 0; q < QUERIES; q++) {
+            results = index.getNearestNeighbors(queries[q],
+                                                NEIGHBORS,
+                                                rerank,
+                                                Integer.MAX_VALUE,
+                                                results,
+                                                new int[]{0});
+            for (int id : truth[q]) {
+                if (results.contains(id)) {
+                    found++;
+                }
+            }
+        }
+        return (double) found / (QUERIES * NEIGHBORS);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int value = 0; value < 16; value++) {
+            histogram.record(value);
+        }
+        for (int value = 0; value < 16; value++) {
+            assertEquals(value, histogram.getPercentile((value + 1) / 16.0));
+        }
+    }
+
+    @Test
+    public void bucketsBoundValuesWithinASixteenth() {
+        Random random = new Random(24);
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextLong() >>> random.nextInt(64);
+            for (long candidate : new long[]{value, Long.highestOneBit(value) - 1,
+                                             Long.highestOneBit(value)}) {
+                if (candidate < 0) {
+                    continue;
+                }
+                // With a larger value recorded too, the median is the top of the candidate's
+                // bucket rather than the maximum.
+                Histogram histogram = new Histogram();
+                histogram.record(candidate);
+                histogram.record(Long.MAX_VALUE);
+                long bound = histogram.getPercentile(0.5);
+                assertTrue(candidate + " -> " + bound, bound >= candidate);
+                assertTrue(candidate + " -> " + bound, bound - candidate <= candidate / 16);
+            }
+        }
+    }
+
+    @Test
+    public void percentilesOfUniformValues() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(50000.5, histogram.getMean(), 0);
+        assertEquals(100000, histogram.getMax());
+        for (double fraction : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            long expected = (long) (fraction * 100000);
+            long actual = histogram.getPercentile(fraction);
+            assertTrue(actual >= expected);
+            assertTrue(actual - expected <= expected / 16);
+        }
+        assertEquals(100000, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getMax());
+        assertEquals(1, histogram.getCount());
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fractionMustBeAtMostOne() {
+        new Histogram().getPercentile(1.5);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InsertTest {
+    private static final int N = 2000;
+    private static final int INSERTS = 6000;
+    private static final int DIMENSIONS = 6;
+    private static final int K = 4;
+    private static final int MAX_DEPTH = 3;
+    private static final int LEAF_SPLIT_THRESHOLD = 100;
+
+    private KMeansTree<Number> tree;
+    private Cluster root;
+    private Random random;
+
+    @Before
+    public void build() {
+        random = new Random(17);
+        KMeansTree.Builder<Number> builder = KMeansTree.builder(new Cluster(DIMENSIONS, K))
+                .maxDepth(MAX_DEPTH)
+                .seed(17)
+                .leafSplitThreshold(LEAF_SPLIT_THRESHOLD);
+        tree = TestVectors.build(builder, TestVectors.uniform(random, N, DIMENSIONS));
+        root = (Cluster) tree.getRoot();
+    }
+
+    @Test
+    public void insertedVectorsAreFound() {
+        int[] ids = new int[INSERTS];
+        for (int i = 0; i < INSERTS; i++) {
+            ids[i] = tree.insert(new Vect(TestVectors.randomValues(random, DIMENSIONS)));
+        }
+        assertEquals(N + INSERTS, root.size());
+        for (int id : ids) {
+            NeighborList results =
+                    tree.getNearestNeighbors(tree.getVect(id), 1, Integer.MAX_VALUE, null);
+            assertEquals(id, results.getId(0));
+        }
+    }
+
+    @Test
+    public void fullLeavesSplit() {
+        for (int i = 0; i < INSERTS; i++) {
+            tree.insert(new Vect(TestVectors.randomValues(random, DIMENSIONS)));
+        }
+        assertTrue(depth(root) > MAX_DEPTH);
+        assertConsistent(root);
+    }
+
+    private static int depth(Cluster cluster) {
+        int depth = 0;
+        for (Cluster subCluster : cluster.getSubClusters()) {
+            depth = Math.max(depth, depth(subCluster));
+        }
+        return depth + 1;
+    }
+
+    /**
+     * Check that every cluster is the sum of its sub-clusters and covers its members, and that
+     * no leaf was left more than full.
+     */
+    private static void assertConsistent(Cluster cluster) {
+        double[] centroid = cluster.getCentroid().toArray();
+        double radius = cluster.getRadius();
+        for (IVect<Number> vect : cluster) {
+            double distance = TestVectors.squaredDistance(((Vect) vect).toArray(), centroid);
+            assertTrue(cluster.getParent() == null || Math.sqrt(distance) <= radius + 1e-9);
+        }
+        if (cluster.getSubClusters().isEmpty()) {
+            assertTrue(cluster.size() <= LEAF_SPLIT_THRESHOLD);
+            return;
+        }
+        int size = 0;
+        for (Cluster subCluster : cluster.getSubClusters()) {
+            size += subCluster.size();
+            assertConsistent(subCluster);
+        }
+        assertEquals(cluster.size(), size);
+    }
+}
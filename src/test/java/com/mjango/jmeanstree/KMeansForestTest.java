@@ -0,0 +1,122 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KMeansForestTest {
+    private static final int N = 10000;
+    private static final int DIMENSIONS = 16;
+    private static final int TREES = 4;
+    private static final int QUERIES = 100;
+    private static final int NEIGHBORS = 10;
+    private static final int MAX_CHECKS = 512;
+
+    private static KMeansTree<Number> tree;
+    private static KMeansForest<Number> forest;
+    private static double[][] queries;
+    private static int[][] truth;
+
+    @BeforeClass
+    public static void build() {
+        Random random = new Random(15);
+        double[][] vectors = TestVectors.uniform(random, N, DIMENSIONS);
+        tree = TestVectors.build(builder(), vectors);
+        KMeansTree<Number> template = builder().build();
+        for (double[] values : vectors) {
+            template.add(new Vect(values));
+        }
+        forest = new KMeansForest<>(template, TREES);
+        forest.calculate();
+        queries = TestVectors.uniform(random, QUERIES, DIMENSIONS);
+        truth = new int[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            truth[q] = TestVectors.nearest(((Cluster) tree.getRoot()).getStore(),
+                                           queries[q],
+                                           NEIGHBORS);
+        }
+    }
+
+    @Test
+    public void forestRecallBeatsOneTree() {
+        int treeFound = 0;
+        int forestFound = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            Vect query = new Vect(queries[q]);
+            NeighborList treeResults = tree.getNearestNeighbors(query, NEIGHBORS, MAX_CHECKS, null);
+            NeighborList forestResults =
+                    forest.getNearestNeighbors(query, NEIGHBORS, MAX_CHECKS, null);
+            for (int id : truth[q]) {
+                treeFound += treeResults.contains(id) ? 1 : 0;
+                forestFound += forestResults.contains(id) ? 1 : 0;
+            }
+        }
+        assertTrue(forestFound > treeFound);
+    }
+
+    @Test
+    public void vectorsAreComparedOnce() {
+        for (int q = 0; q < QUERIES; q++) {
+            int[] compareCount = new int[]{0};
+            NeighborList results = forest.getNearestNeighbors(new Vect(queries[q]),
+                                                              NEIGHBORS,
+                                                              Integer.MAX_VALUE,
+                                                              null,
+                                                              compareCount);
+            Set<Integer> ids = new HashSet<>();
+            for (int i = 0; i < results.size(); i++) {
+                assertTrue(ids.add(results.getId(i)));
+                assertEquals(truth[q][i], results.getId(i));
+            }
+            // Every tree holds every vector, but each is only compared through the first tree
+            // that reaches it; the rest are centroid comparisons.
+            assertTrue(compareCount[0] < 2 * N);
+        }
+    }
+
+    @Test
+    public void visitedSetClearsBetweenQueries() {
+        VisitedSet seen = new VisitedSet();
+        assertTrue(seen.add(3));
+        assertFalse(seen.add(3));
+        assertTrue(seen.add(100000));
+        seen.clear();
+        assertTrue(seen.add(3));
+        assertTrue(seen.add(100000));
+    }
+
+    private static KMeansTree.Builder<Number> builder() {
+        return KMeansTree.builder(new Cluster(DIMENSIONS, 6)).maxDepth(4).seed(15);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MiniBatchTest {
+    private static final int N = 20000;
+    private static final int DIMENSIONS = 8;
+    private static final int K = 8;
+
+    @Test
+    public void miniBatchConvergesNearLloyd() {
+        double[][] vectors = TestVectors.blobs(new Random(4), N, DIMENSIONS, K);
+        Cluster lloyd = (Cluster) TestVectors.build(builder(), vectors).getRoot();
+        Cluster miniBatch = (Cluster) TestVectors.build(builder().miniBatchThreshold(N)
+                                                                 .miniBatchSize(256),
+                                                        vectors).getRoot();
+        assertEquals(K, miniBatch.getSubClusters().size());
+        assertTrue(cost(miniBatch) <= 1.02 * cost(lloyd));
+    }
+
+    @Test
+    public void smallClustersKeepFullBatch() {
+        double[][] vectors = TestVectors.blobs(new Random(4), N, DIMENSIONS, K);
+        Cluster lloyd = (Cluster) TestVectors.build(builder(), vectors).getRoot();
+        Cluster root = (Cluster) TestVectors.build(builder().miniBatchThreshold(N + 1),
+                                                   vectors).getRoot();
+        assertEquals(lloyd.getIterations(), root.getIterations());
+        assertEquals(cost(lloyd), cost(root), 0);
+    }
+
+    private static KMeansTree.Builder<Number> builder() {
+        return KMeansTree.builder(new Cluster(DIMENSIONS, K))
+                .maxDepth(2)
+                .seeding(new KMeansPlusPlusSeeding())
+                .seed(4);
+    }
+
+    /**
+     * Sum the squared distances of the members of each sub-cluster from its centroid.
+     */
+    private static double cost(Cluster root) {
+        double cost = 0;
+        for (Cluster subCluster : root.getSubClusters()) {
+            double[] centroid = subCluster.getCentroid().toArray();
+            for (IVect<Number> vect : subCluster) {
+                for (int j = 0; j < DIMENSIONS; j++) {
+                    double diff = vect.get(j).doubleValue() - centroid[j];
+                    cost += diff * diff;
+                }
+            }
+        }
+        return cost;
+    }
+}
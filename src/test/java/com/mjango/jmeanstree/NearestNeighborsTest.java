@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NearestNeighborsTest {
+    private static final int N = 10000;
+    private static final int DIMENSIONS = 8;
+    private static final int QUERIES = 100;
+    private static final int NEIGHBORS = 10;
+
+    private static KMeansTree<Number> tree;
+    private static VectStore store;
+    private static double[][] queries;
+    private static int[][] truth;
+
+    @BeforeClass
+    public static void build() {
+        Random random = new Random(7);
+        KMeansTree.Builder<Number> builder = KMeansTree.builder(new Cluster(DIMENSIONS, 6))
+                .maxDepth(4)
+                .seed(7);
+        tree = TestVectors.build(builder, TestVectors.uniform(random, N, DIMENSIONS));
+        store = ((Cluster) tree.getRoot()).getStore();
+        queries = TestVectors.uniform(random, QUERIES, DIMENSIONS);
+        truth = new int[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            truth[q] = TestVectors.nearest(store, queries[q], NEIGHBORS);
+        }
+    }
+
+    @Test
+    public void unlimitedBudgetIsExact() {
+        NeighborList results = null;
+        for (int q = 0; q < QUERIES; q++) {
+            results = tree.getNearestNeighbors(new Vect(queries[q]),
+                                               NEIGHBORS,
+                                               Integer.MAX_VALUE,
+                                               results);
+            assertArrayEquals(truth[q], ids(results));
+            for (int i = 0; i < results.size(); i++) {
+                double distance = TestVectors.squaredDistance(store.toArray(truth[q][i]),
+                                                              queries[q]);
+                assertEquals(Math.sqrt(distance), results.getDistance(i), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void budgetedRecall() {
+        int found = 0;
+        NeighborList results = null;
+        for (int q = 0; q < QUERIES; q++) {
+            results = tree.getNearestNeighbors(new Vect(queries[q]), NEIGHBORS, 1024, results);
+            assertEquals(NEIGHBORS, results.size());
+            for (int i = 1; i < results.size(); i++) {
+                assertTrue(results.getDistance(i - 1) <= results.getDistance(i));
+            }
+            for (int id : truth[q]) {
+                if (results.contains(id)) {
+                    found++;
+                }
+            }
+        }
+        assertTrue((double) found / (QUERIES * NEIGHBORS) >= 0.9);
+    }
+
+    @Test
+    public void resultsAreReused() {
+        NeighborList results = new NeighborList(NEIGHBORS);
+        assertSame(results,
+                   tree.getNearestNeighbors(new Vect(queries[0]), NEIGHBORS, 256, results));
+        assertSame(results,
+                   tree.getNearestNeighbors(new Vect(queries[1]), NEIGHBORS, 256, results));
+        assertEquals(NEIGHBORS, results.size());
+    }
+
+    private static int[] ids(NeighborList results) {
+        int[] ids = new int[results.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = results.getId(i);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RangeSearchTest {
+    private static final int N = 10000;
+    private static final int DIMENSIONS = 4;
+    private static final int QUERIES = 50;
+    private static final double RADIUS = 0.15;
+
+    private static KMeansTree<Number> tree;
+    private static VectStore store;
+    private static double[][] queries;
+
+    @BeforeClass
+    public static void build() {
+        Random random = new Random(12);
+        KMeansTree.Builder<Number> builder = KMeansTree.builder(new Cluster(DIMENSIONS, 5))
+                .maxDepth(4)
+                .seed(12);
+        tree = TestVectors.build(builder, TestVectors.uniform(random, N, DIMENSIONS));
+        store = ((Cluster) tree.getRoot()).getStore();
+        queries = TestVectors.uniform(random, QUERIES, DIMENSIONS);
+    }
+
+    @Test
+    public void visitsEveryVectorInRange() {
+        long comparisons = 0;
+        for (final double[] query : queries) {
+            final Set<Integer> visited = new HashSet<>();
+            int[] compareCount = new int[]{0};
+            tree.rangeSearch(new Vect(query), RADIUS, new INeighborVisitor() {
+                @Override
+                public boolean visit(int id, double distance) {
+                    assertTrue(visited.add(id));
+                    double expected = TestVectors.squaredDistance(store.toArray(id), query);
+                    assertEquals(Math.sqrt(expected), distance, 1e-12);
+                    return true;
+                }
+            }, compareCount);
+            Set<Integer> expected = new HashSet<>();
+            for (int id = 0; id < N; id++) {
+                if (TestVectors.squaredDistance(store.toArray(id), query) <= RADIUS * RADIUS) {
+                    expected.add(id);
+                }
+            }
+            assertEquals(expected, visited);
+            comparisons += compareCount[0];
+        }
+        // Covering radii prune most of the tree.
+        assertTrue(comparisons < (long) N * QUERIES / 2);
+    }
+
+    @Test
+    public void visitorStopsTheQuery() {
+        final int[] visits = new int[]{0};
+        tree.rangeSearch(new Vect(queries[0]), 1, new INeighborVisitor() {
+            @Override
+            public boolean visit(int id, double distance) {
+                visits[0]++;
+                return false;
+            }
+        });
+        assertEquals(1, visits[0]);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RemoveTest {
+    private static final int N = 4000;
+    private static final int DIMENSIONS = 8;
+    private static final int K = 5;
+    private static final int QUERIES = 50;
+    private static final int NEIGHBORS = 10;
+
+    private KMeansTree<Number> tree;
+    private Cluster root;
+    private Random random;
+
+    @Before
+    public void build() {
+        random = new Random(5);
+        KMeansTree.Builder<Number> builder = KMeansTree.builder(new Cluster(DIMENSIONS, K))
+                .maxDepth(4)
+                .seed(5)
+                .leafSplitThreshold(50)
+                .compactionThreshold(1);
+        tree = TestVectors.build(builder, TestVectors.uniform(random, N, DIMENSIONS));
+        root = (Cluster) tree.getRoot();
+    }
+
+    @Test
+    public void removedVectorsAreSkipped() {
+        int removed = 0;
+        for (int id = 0; id < N; id += 3) {
+            assertTrue(tree.remove(id));
+            assertFalse(tree.remove(id));
+            removed++;
+        }
+        assertEquals(N - removed, root.size());
+        assertExact();
+    }
+
+    @Test
+    public void compactDropsRemovedVectors() {
+        int removed = 0;
+        for (int id = 0; id < N; id++) {
+            if (random.nextDouble() < 0.7) {
+                assertTrue(tree.remove(id));
+                removed++;
+            }
+        }
+        tree.compact();
+        assertEquals(0, root.getDeletedFraction(), 0);
+        assertEquals(N - removed, root.size());
+        assertConsistent(root);
+        assertExact();
+    }
+
+    @Test
+    public void insertedVectorsCanBeRemoved() {
+        int[] inserted = new int[500];
+        for (int i = 0; i < inserted.length; i++) {
+            inserted[i] = tree.insert(new Vect(TestVectors.randomValues(random, DIMENSIONS)));
+        }
+        assertEquals(N + inserted.length, root.size());
+        for (int id : inserted) {
+            assertTrue(tree.remove(id));
+        }
+        tree.compact();
+        assertEquals(N, root.size());
+        assertConsistent(root);
+        assertExact();
+    }
+
+    /**
+     * Check that an exhaustive search of the tree finds the same neighbors as brute force over
+     * the vectors that have not been removed.
+     */
+    private void assertExact() {
+        NeighborList results = null;
+        for (double[] query : TestVectors.uniform(random, QUERIES, DIMENSIONS)) {
+            results = tree.getNearestNeighbors(new Vect(query),
+                                               NEIGHBORS,
+                                               Integer.MAX_VALUE,
+                                               results);
+            int[] ids = new int[results.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = results.getId(i);
+            }
+            assertArrayEquals(TestVectors.nearest(root.getStore(), query, NEIGHBORS), ids);
+        }
+    }
+
+    /**
+     * Check that each cluster's size is the sum of its sub-clusters' sizes, and that no leaf was
+     * left with fewer than K members by compaction.
+     */
+    private static void assertConsistent(Cluster cluster) {
+        List<Cluster> subClusters = cluster.getSubClusters();
+        if (subClusters.isEmpty()) {
+            if (cluster.getParent() != null) {
+                assertTrue(cluster.size() >= K);
+            }
+            return;
+        }
+        int size = 0;
+        for (Cluster subCluster : subClusters) {
+            assertEquals(cluster, subCluster.getParent());
+            size += subCluster.size();
+            assertConsistent(subCluster);
+        }
+        assertEquals(cluster.size(), size);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotTest {
+    private static final int N = 10000;
+    private static final int DIMENSIONS = 8;
+    private static final int NEIGHBORS = 10;
+    private static final int READERS = 4;
+    private static final int ROUNDS = 4;
+
+    @Test
+    public void snapshotsStayReadableDuringRebuilds() throws Exception {
+        Random random = new Random(9);
+        final KMeansTree<Number> tree =
+                TestVectors.build(builder(), TestVectors.uniform(random, N, DIMENSIONS));
+        FlatIndex first = tree.publish();
+        assertSame(first, tree.getSnapshot());
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong queryCount = new AtomicLong();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] readers = new Thread[READERS];
+        for (int t = 0; t < READERS; t++) {
+            final long seed = t;
+            readers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    NeighborList results = null;
+                    try {
+                        while (!stop.get()) {
+                            double[] query = TestVectors.randomValues(random, DIMENSIONS);
+                            results = tree.getSnapshot().getNearestNeighbors(query,
+                                                                            NEIGHBORS,
+                                                                            256,
+                                                                            results,
+                                                                            new int[]{0});
+                            check(tree, query, results);
+                            queryCount.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            });
+            readers[t].start();
+        }
+
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int i = 0; i < 1000; i++) {
+                    tree.insert(new Vect(TestVectors.randomValues(random, DIMENSIONS)));
+                }
+                for (int i = 0; i < 500; i++) {
+                    tree.remove(random.nextInt(N));
+                }
+                long before = queryCount.get();
+                Future<FlatIndex> rebuild = tree.rebuildInBackground();
+                FlatIndex snapshot = rebuild.get();
+                assertSame(snapshot, tree.getSnapshot());
+                assertEquals(tree.getRoot().size(), snapshot.getVectorCount());
+                while (queryCount.get() == before && error.get() == null) {
+                    Thread.yield();
+                }
+            }
+        } finally {
+            stop.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        assertNull(error.get());
+
+        // An earlier snapshot is unaffected by the rebuilds published after it.
+        double[] query = TestVectors.randomValues(random, DIMENSIONS);
+        check(tree, query, first.getNearestNeighbors(query, NEIGHBORS, 256, null, new int[]{0}));
+        assertEquals(N, first.getVectorCount());
+    }
+
+    @Test
+    public void rebuildKeepsConcurrentChanges() throws Exception {
+        Random random = new Random(10);
+        final KMeansTree<Number> tree =
+                TestVectors.build(builder(), TestVectors.uniform(random, N, DIMENSIONS));
+        ICluster<Number> oldRoot = tree.getRoot();
+        final Set<Integer> live =
+                Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        for (int id = 0; id < N; id++) {
+            live.add(id);
+        }
+        final Set<Integer> inserted =
+                Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(11);
+                try {
+                    while (!stop.get()) {
+                        int id = tree.insert(new Vect(TestVectors.randomValues(random,
+                                                                               DIMENSIONS)));
+                        live.add(id);
+                        inserted.add(id);
+                        int removed = random.nextBoolean() ? id : random.nextInt(N);
+                        if (tree.remove(removed)) {
+                            live.remove(removed);
+                        }
+                        Thread.sleep(1);
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                tree.rebuildInBackground().get();
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        assertNull(error.get());
+        assertNotSame(oldRoot, tree.getRoot());
+        assertEquals(live.size(), tree.getRoot().size());
+        // Vectors inserted during a rebuild were replayed into the new root.
+        NeighborList results = null;
+        for (int id : inserted) {
+            if (!live.contains(id)) {
+                continue;
+            }
+            results = tree.getNearestNeighbors(tree.getVect(id), 1, Integer.MAX_VALUE, results);
+            assertEquals(id, results.getId(0));
+        }
+    }
+
+    private static KMeansTree.Builder<Number> builder() {
+        return KMeansTree.builder(new Cluster(DIMENSIONS, 6)).maxDepth(4).seed(9);
+    }
+
+    /**
+     * Check that results are full, sorted, and hold each vector's true distance from the query.
+     */
+    private static void check(KMeansTree<Number> tree, double[] query, NeighborList results) {
+        assertEquals(NEIGHBORS, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            IVect<Number> vect = tree.getVect(results.getId(i));
+            double sum = 0;
+            for (int j = 0; j < DIMENSIONS; j++) {
+                double diff = vect.get(j).doubleValue() - query[j];
+                sum += diff * diff;
+            }
+            assertEquals(Math.sqrt(sum), results.getDistance(i), 1e-9);
+            assertTrue(i == 0 || results.getDistance(i - 1) <= results.getDistance(i));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StopReasonTest {
+    private static final int N = 5000;
+    private static final int DIMENSIONS = 4;
+    private static final int K = 8;
+
+    @Test
+    public void uncalculatedClusterHasNoStopReason() {
+        assertNull(new Cluster(DIMENSIONS, K).getStopReason());
+    }
+
+    @Test
+    public void convergedWhenNoMeanMoves() {
+        Cluster root = build(builder());
+        assertEquals(StopReason.CONVERGED, root.getStopReason());
+        assertTrue(root.getIterations() < BuildOptions.DEFAULT_MAX_ITERATIONS);
+    }
+
+    @Test
+    public void maxIterationsCapsTheIterations() {
+        Cluster root = build(builder().maxIterations(2));
+        assertEquals(StopReason.MAX_ITERATIONS, root.getStopReason());
+        assertEquals(2, root.getIterations());
+    }
+
+    @Test
+    public void toleranceStopsSmallShifts() {
+        Cluster root = build(builder().tolerance(0.1));
+        assertEquals(StopReason.TOLERANCE, root.getStopReason());
+        assertTrue(root.getIterations() < build(builder()).getIterations());
+    }
+
+    @Test
+    public void fewChangedAssignmentsStop() {
+        Cluster root = build(builder().minChangedFraction(0.05));
+        assertEquals(StopReason.ASSIGNMENTS_STABLE, root.getStopReason());
+        assertTrue(root.getIterations() > 1);
+        assertTrue(root.getIterations() < build(builder()).getIterations());
+    }
+
+    @Test
+    public void miniBatchStopsAfterOneFullPass() {
+        Cluster root = build(builder().miniBatchThreshold(N));
+        assertEquals(StopReason.MINI_BATCH, root.getStopReason());
+    }
+
+    private static KMeansTree.Builder<Number> builder() {
+        return KMeansTree.builder(new Cluster(DIMENSIONS, K)).maxDepth(2).seed(2);
+    }
+
+    private static Cluster build(KMeansTree.Builder<Number> builder) {
+        double[][] vectors = TestVectors.uniform(new Random(2), N, DIMENSIONS);
+        return (Cluster) TestVectors.build(builder, vectors).getRoot();
+    }
+}
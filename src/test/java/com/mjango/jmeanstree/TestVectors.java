@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Seeded test data shared by the tests.
+ */
+final class TestVectors {
+    private TestVectors() {
+    }
+
+    /**
+     * Draw a vector uniformly from the unit hypercube.
+     */
+    static double[] randomValues(Random random, int dimensions) {
+        double[] values = new double[dimensions];
+        for (int j = 0; j < dimensions; j++) {
+            values[j] = random.nextDouble();
+        }
+        return values;
+    }
+
+    /**
+     * Draw vectors uniformly from the unit hypercube.
+     */
+    static double[][] uniform(Random random, int count, int dimensions) {
+        double[][] vectors = new double[count][];
+        for (int i = 0; i < count; i++) {
+            vectors[i] = randomValues(random, dimensions);
+        }
+        return vectors;
+    }
+
+    /**
+     * Draw vectors from Gaussian blobs of unit spread, whose centers are drawn uniformly from
+     * <code>[0, 10)</code> in each dimension.
+     */
+    static double[][] blobs(Random random, int count, int dimensions, int centerCount) {
+        double[][] centers = new double[centerCount][dimensions];
+        for (double[] center : centers) {
+            for (int j = 0; j < dimensions; j++) {
+                center[j] = random.nextDouble() * 10;
+            }
+        }
+        double[][] vectors = new double[count][dimensions];
+        for (double[] values : vectors) {
+            double[] center = centers[random.nextInt(centerCount)];
+            for (int j = 0; j < dimensions; j++) {
+                values[j] = center[j] + random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * Find the K vectors of a store nearest to a query by brute force, skipping removed vectors.
+     *
+     * @return the store ids of the neighbors, nearest first.
+     */
+    static int[] nearest(VectStore store, double[] query, int k) {
+        int[] ids = new int[k];
+        double[] distances = new double[k];
+        int found = 0;
+        for (int id = 0; id < store.size(); id++) {
+            if (store.isDeleted(id)) {
+                continue;
+            }
+            double distance = squaredDistance(store.toArray(id), query);
+            int i = found;
+            while (i > 0 && distance < distances[i - 1]) {
+                i--;
+            }
+            if (i < k) {
+                int moved = Math.min(found, k - 1) - i;
+                System.arraycopy(ids, i, ids, i + 1, moved);
+                System.arraycopy(distances, i, distances, i + 1, moved);
+                ids[i] = id;
+                distances[i] = distance;
+                found = Math.min(found + 1, k);
+            }
+        }
+        return Arrays.copyOf(ids, found);
+    }
+
+    static double squaredDistance(double[] a, double[] b) {
+        double sum = 0;
+        for (int j = 0; j < a.length; j++) {
+            double diff = a[j] - b[j];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Build a tree over vectors.
+     */
+    static KMeansTree<Number> build(KMeansTree.Builder<Number> builder, double[][] vectors) {
+        KMeansTree<Number> tree = builder.build();
+        for (double[] values : vectors) {
+            tree.add(new Vect(values));
+        }
+        tree.calculate();
+        return tree;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Marcus Jang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.mjango.jmeanstree;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class VectorFilesTest {
+    private static final int ROWS = 5000;
+    private static final int DIMENSIONS = 12;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fvecsRoundTrip() throws IOException {
+        double[][] rows = rows(new Random(19), 1000);
+        assertLoads(writeVecs("fvecs", rows, 4), rows);
+    }
+
+    @Test
+    public void bvecsRoundTrip() throws IOException {
+        double[][] rows = rows(new Random(19), 255);
+        assertLoads(writeVecs("bvecs", rows, 1), rows);
+    }
+
+    @Test
+    public void npyRoundTrip() throws IOException {
+        double[][] rows = rows(new Random(19), 1000);
+        assertLoads(writeNpy(rows, 4), rows);
+        assertLoads(writeNpy(rows, 8), rows);
+    }
+
+    @Test
+    public void ivecsRoundTrip() throws IOException {
+        double[][] rows = rows(new Random(19), 100000);
+        int[][] ids = VectorFiles.loadIvecs(writeVecs("ivecs", rows, 4));
+        assertEquals(ROWS, ids.length);
+        for (int i = 0; i < ROWS; i++) {
+            for (int j = 0; j < DIMENSIONS; j++) {
+                assertEquals((int) rows[i][j], ids[i][j]);
+            }
+        }
+    }
+
+    @Test
+    public void loadIntoTree() throws IOException {
+        double[][] rows = rows(new Random(19), 1000);
+        KMeansTree<Number> tree = KMeansTree.builder(new Cluster(DIMENSIONS, 4)).build();
+        tree.add(new Vect(new double[DIMENSIONS]));
+        assertEquals(ROWS, VectorFiles.load(writeVecs("fvecs", rows, 4), tree));
+        assertEquals(ROWS + 1, tree.getRoot().size());
+        for (int i = 0; i < ROWS; i++) {
+            assertArrayEquals(rows[i], ((Vect) tree.getVect(i + 1)).toArray(), 0);
+        }
+    }
+
+    @Test
+    public void badRowGivesBackReservedIds() throws IOException {
+        double[][] rows = rows(new Random(19), 1000);
+        Path path = writeVecs("fvecs", rows, 4);
+        // Corrupt the dimension count of a row well into the file.
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(3000 * (4 + 4 * DIMENSIONS), DIMENSIONS + 1);
+        Files.write(path, bytes.array());
+
+        VectStore store = new VectStore(DIMENSIONS);
+        store.add(new double[DIMENSIONS]);
+        try {
+            VectorFiles.load(path, store);
+            fail();
+        } catch (IOException expected) {
+            // The load fails as a whole.
+        }
+        assertEquals(1, store.size());
+        assertEquals(1, store.add(new double[DIMENSIONS]));
+    }
+
+    @Test(expected = IOException.class)
+    public void dimensionMismatchFails() throws IOException {
+        VectorFiles.load(writeVecs("fvecs", rows(new Random(19), 1000), 4),
+                         new VectStore(DIMENSIONS + 1));
+    }
+
+    private static void assertLoads(Path path, double[][] rows) throws IOException {
+        assertEquals(DIMENSIONS, VectorFiles.getDimensions(path));
+        VectStore store = new VectStore(DIMENSIONS);
+        assertEquals(0, VectorFiles.load(path, store));
+        assertEquals(ROWS, store.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertArrayEquals(rows[i], store.toArray(i), 0);
+        }
+    }
+
+    /**
+     * Draw rows of whole numbers below <code>bound</code>, which every format holds exactly.
+     */
+    private static double[][] rows(Random random, int bound) {
+        double[][] rows = new double[ROWS][DIMENSIONS];
+        for (double[] row : rows) {
+            for (int j = 0; j < DIMENSIONS; j++) {
+                row[j] = random.nextInt(bound);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Write rows in the fvecs, bvecs or ivecs layout: each row is its dimension count as an
+     * int, followed by its values.
+     */
+    private Path writeVecs(String extension, double[][] rows, int valueBytes) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(ROWS * (4 + DIMENSIONS * valueBytes))
+                                     .order(ByteOrder.LITTLE_ENDIAN);
+        for (double[] row : rows) {
+            bytes.putInt(DIMENSIONS);
+            for (double value : row) {
+                if ("ivecs".equals(extension)) {
+                    bytes.putInt((int) value);
+                } else if (valueBytes == 4) {
+                    bytes.putFloat((float) value);
+                } else {
+                    bytes.put((byte) value);
+                }
+            }
+        }
+        return write(extension, bytes.array());
+    }
+
+    /**
+     * Write rows as a version 1.0 .npy file of <code>&lt;f4</code> or <code>&lt;f8</code>
+     * values.
+     */
+    private Path writeNpy(double[][] rows, int valueBytes) throws IOException {
+        StringBuilder header = new StringBuilder("{'descr': '<f" + valueBytes + "', " +
+                                                 "'fortran_order': False, " +
+                                                 "'shape': (" + ROWS + ", " + DIMENSIONS + "), }");
+        while ((10 + header.length() + 1) % 64 != 0) {
+            header.append(' ');
+        }
+        header.append('\n');
+        ByteBuffer bytes = ByteBuffer.allocate(10 + header.length() +
+                                               ROWS * DIMENSIONS * valueBytes)
+                                     .order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put((byte) 0x93).put("NUMPY".getBytes(StandardCharsets.US_ASCII));
+        bytes.put((byte) 1).put((byte) 0).putShort((short) header.length());
+        bytes.put(header.toString().getBytes(StandardCharsets.US_ASCII));
+        for (double[] row : rows) {
+            for (double value : row) {
+                if (valueBytes == 4) {
+                    bytes.putFloat((float) value);
+                } else {
+                    bytes.putDouble(value);
+                }
+            }
+        }
+        return write("npy", bytes.array());
+    }
+
+    private Path write(String extension, byte[] bytes) throws IOException {
+        File file = File.createTempFile("vectors", "." + extension, folder.getRoot());
+        Files.write(file.toPath(), bytes);
+        return file.toPath();
+    }
+}